@@ -35,6 +35,13 @@ android {
     }
 }
 
+// The hot path benchmarks take a while, so unit test runs only include them with -Pbenchmark
+tasks.withType<Test>().configureEach {
+    if (!project.hasProperty("benchmark")) {
+        exclude("**/benchmark/**")
+    }
+}
+
 dependencies {
     implementation(libs.appcompat)
     implementation(libs.material)
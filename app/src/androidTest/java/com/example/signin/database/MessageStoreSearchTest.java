@@ -0,0 +1,115 @@
+package com.example.signin.database;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.example.signin.models.ChatMessage;
+import com.example.signin.models.MessageSearchResult;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs the full-text search and the anchored reads against an in-memory store, since FTS4 and
+ * matchinfo come from the device's SQLite
+ */
+@RunWith(AndroidJUnit4.class)
+public class MessageStoreSearchTest {
+
+    private static final String CONVERSATION_ID = "alice_bob";
+    private static final long DAY_MILLIS = 24 * 60 * 60 * 1000L;
+
+    private MessageStore messageStore;
+    private long now;
+
+    @Before
+    public void openStore() {
+        messageStore = new MessageStore(InstrumentationRegistry.getInstrumentation().getTargetContext(), null);
+        now = System.currentTimeMillis();
+    }
+
+    @After
+    public void closeStore() {
+        messageStore.close();
+    }
+
+    @Test
+    public void searchMessages_ranksMoreRelevantMessageFirst() {
+        insert(message("m1", "the weather is nice and we could go hiking on the weekend", now),
+                message("m2", "hiking hiking", now),
+                message("m3", "nothing to see here", now));
+        assertEquals(Arrays.asList("m2", "m1"), ids(messageStore.searchMessages("hiking", 10)));
+    }
+
+    @Test
+    public void searchMessages_prefersRecentMessageOfEqualRelevance() {
+        insert(message("old", "dinner tonight", now - 200 * DAY_MILLIS),
+                message("new", "dinner tonight", now - DAY_MILLIS));
+        assertEquals(Arrays.asList("new", "old"), ids(messageStore.searchMessages("dinner", 10)));
+    }
+
+    @Test
+    public void searchMessages_matchesPrefixesOfEveryWord() {
+        insert(message("m1", "see you at the station", now),
+                message("m2", "see you later", now),
+                message("m3", "stationery shop", now));
+        assertEquals(Arrays.asList("m1"), ids(messageStore.searchMessages("see stat", 10)));
+        assertTrue(messageStore.searchMessages("  \"  ", 10).isEmpty());
+    }
+
+    @Test
+    public void searchMessages_followsReplacedAndClearedMessages() {
+        insert(message("m1", "first draft", now));
+        insert(message("m1", "final version", now));
+        assertTrue(messageStore.searchMessages("draft", 10).isEmpty());
+        assertEquals(Arrays.asList("m1"), ids(messageStore.searchMessages("final", 10)));
+        messageStore.clear();
+        assertTrue(messageStore.searchMessages("final", 10).isEmpty());
+    }
+
+    @Test
+    public void getMessagesAround_returnsBoundedWindowOnEachSide() {
+        List<ChatMessage> history = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            history.add(message("m" + i, "text " + i, now + i));
+        }
+        insert(history.toArray(new ChatMessage[0]));
+        List<ChatMessage> window = messageStore.getMessagesAround(CONVERSATION_ID, "m10", 3);
+        assertEquals(Arrays.asList("m7", "m8", "m9", "m10", "m11", "m12", "m13"), messageIDs(window));
+        assertEquals(Arrays.asList("m14", "m15"), messageIDs(messageStore.getMessagesAfter(CONVERSATION_ID, now + 13, 2)));
+        assertTrue(messageStore.getMessagesAround(CONVERSATION_ID, "missing", 3).isEmpty());
+    }
+
+    private void insert(ChatMessage... chatMessages) {
+        messageStore.insertMessages(CONVERSATION_ID, Arrays.asList(chatMessages), false);
+    }
+
+    private static ChatMessage message(String id, String text, long timestamp) {
+        return new ChatMessage(id, CONVERSATION_ID, "alice", "bob", text, timestamp, false);
+    }
+
+    private static List<String> ids(List<MessageSearchResult> results) {
+        List<String> ids = new ArrayList<>();
+        for (MessageSearchResult result : results) {
+            ids.add(result.chatMessage.id);
+        }
+        return ids;
+    }
+
+    private static List<String> messageIDs(List<ChatMessage> chatMessages) {
+        List<String> ids = new ArrayList<>();
+        for (ChatMessage chatMessage : chatMessages) {
+            ids.add(chatMessage.id);
+        }
+        return ids;
+    }
+}
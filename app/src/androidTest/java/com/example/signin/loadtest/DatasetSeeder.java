@@ -0,0 +1,149 @@
+package com.example.signin.loadtest;
+
+import android.util.Log;
+
+import com.example.signin.utilities.Constants;
+import com.example.signin.utilities.Conversations;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.WriteBatch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Writes a synthetic dataset into the emulator: users in the User collection and messages in
+ * the chat collection, spread over conversations with a Zipf-like skew so a few conversations
+ * hold most of the messages, as in production
+ * Conversation 0 is always between user 0, the user the test signs in as, and user 1, and is
+ * the largest one. Document IDs are deterministic, so seeding again overwrites instead of
+ * duplicating, and a marker document lets an identical dataset be reused between runs
+ */
+class DatasetSeeder {
+
+    private static final String TAG = "DatasetSeeder";
+    private static final String MARKER_COLLECTION = "loadtest";
+    private static final String MARKER_DOCUMENT = "dataset";
+    private static final String MARKER_FIELD = "config";
+    private static final int BATCH_SIZE = 500;
+    private static final int BATCHES_IN_FLIGHT = 8;
+    private static final long MESSAGE_INTERVAL_MS = 1000;
+
+    private final FirebaseFirestore firestore;
+    private final LoadTestConfig config;
+    private final List<Task<Void>> inFlight = new ArrayList<>();
+    private WriteBatch batch;
+    private int batchSize;
+
+    DatasetSeeder(FirebaseFirestore firestore, LoadTestConfig config) {
+        this.firestore = firestore;
+        this.config = config;
+    }
+
+    /**
+     * Seeds the dataset unless the emulator already holds one with the same configuration
+     * Blocks until every write has been acknowledged, so it must not run on the main thread
+     * @throws Exception If a write fails
+     */
+    void seedIfNeeded() throws Exception {
+        DocumentReference marker = firestore.collection(MARKER_COLLECTION).document(MARKER_DOCUMENT);
+        DocumentSnapshot markerSnapshot = Tasks.await(marker.get());
+        if (config.describe().equals(markerSnapshot.getString(MARKER_FIELD))) {
+            Log.i(TAG, "Reusing seeded dataset " + config.describe());
+            return;
+        }
+        long start = System.currentTimeMillis();
+        seedUsers();
+        seedMessages();
+        flush();
+        awaitInFlight(0);
+        Map<String, Object> markerData = new HashMap<>();
+        markerData.put(MARKER_FIELD, config.describe());
+        Tasks.await(marker.set(markerData));
+        Log.i(TAG, "Seeded " + config.describe() + " in " + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    private void seedUsers() throws Exception {
+        for (int i = 0; i < config.users; i++) {
+            Map<String, Object> user = new HashMap<>();
+            user.put(Constants.KEY_NAME, String.format(Locale.US, "User %05d", i));
+            user.put(Constants.KEY_EMAIL, String.format(Locale.US, "user%05d@loadtest.example", i));
+            add(firestore.collection(Constants.KEY_COLLECTION_USERS).document(LoadTestConfig.userID(i)), user);
+        }
+    }
+
+    private void seedMessages() throws Exception {
+        Random random = new Random(config.randomSeed);
+        String[][] participants = new String[config.conversations][];
+        for (int i = 0; i < config.conversations; i++) {
+            int first = i == 0 ? 0 : random.nextInt(config.users);
+            int second = i == 0 ? 1 : random.nextInt(config.users - 1);
+            if (i != 0 && second >= first) {
+                second++;
+            }
+            participants[i] = new String[]{LoadTestConfig.userID(first), LoadTestConfig.userID(second)};
+        }
+        double[] cumulativeWeights = new double[config.conversations];
+        double total = 0;
+        for (int i = 0; i < config.conversations; i++) {
+            total += 1 / Math.pow(i + 1, config.skew);
+            cumulativeWeights[i] = total;
+        }
+
+        long firstTimestamp = System.currentTimeMillis() - config.messages * MESSAGE_INTERVAL_MS;
+        for (int i = 0; i < config.messages; i++) {
+            int conversation = Arrays.binarySearch(cumulativeWeights, random.nextDouble() * total);
+            if (conversation < 0) {
+                conversation = Math.min(-conversation - 1, config.conversations - 1);
+            }
+            String[] pair = participants[conversation];
+            boolean fromFirst = random.nextBoolean();
+            String senderID = fromFirst ? pair[0] : pair[1];
+            String receiverID = fromFirst ? pair[1] : pair[0];
+            Map<String, Object> message = new HashMap<>();
+            message.put(Constants.KEY_CONVERSATION_ID, Conversations.getConversationID(senderID, receiverID));
+            message.put(Constants.KEY_SENDER_ID, senderID);
+            message.put(Constants.KEY_RECEIVER_ID, receiverID);
+            message.put(Constants.KEY_MESSAGE, "Load test message " + i);
+            message.put(Constants.KEY_TIMESTAMP, new Date(firstTimestamp + i * MESSAGE_INTERVAL_MS));
+            add(firestore.collection(Constants.KEY_COLLECTION_CHAT)
+                    .document(String.format(Locale.US, "loadtest_message_%07d", i)), message);
+        }
+    }
+
+    private void add(DocumentReference document, Map<String, Object> data) throws Exception {
+        if (batch == null) {
+            batch = firestore.batch();
+        }
+        batch.set(document, data);
+        if (++batchSize == BATCH_SIZE) {
+            flush();
+        }
+    }
+
+    private void flush() throws Exception {
+        if (batch == null) {
+            return;
+        }
+        inFlight.add(batch.commit());
+        batch = null;
+        batchSize = 0;
+        awaitInFlight(BATCHES_IN_FLIGHT);
+    }
+
+    private void awaitInFlight(int limit) throws Exception {
+        if (inFlight.size() > limit) {
+            Tasks.await(Tasks.whenAll(inFlight));
+            inFlight.clear();
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package com.example.signin.loadtest;
+
+import static org.junit.Assert.fail;
+
+import android.app.Activity;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.recyclerview.widget.RecyclerView;
+import androidx.test.core.app.ActivityScenario;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.example.signin.R;
+import com.example.signin.activities.ChatActivity;
+import com.example.signin.activities.UserActivity;
+import com.example.signin.database.MessageStore;
+import com.example.signin.utilities.Constants;
+import com.example.signin.utilities.Metrics;
+import com.example.signin.utilities.PreferenceManager;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Opens the user directory and the largest conversation against a seeded Firestore emulator
+ * and reports time to first item, documents read from the backend and peak heap
+ * Start the emulator with firebase emulators:start --only firestore, then run
+ * ./gradlew connectedDebugAndroidTest -Pandroid.testInstrumentationRunnerArguments.class=com.example.signin.loadtest.LoadTest
+ * The report is logged under the LoadTest tag and written to loadtest/report.json in the
+ * app's external files directory
+ */
+@RunWith(AndroidJUnit4.class)
+public class LoadTest {
+
+    private static final String TAG = "LoadTest";
+    private static final long POLL_INTERVAL_MS = 5;
+
+    private static LoadTestConfig config;
+    private static final List<String> results = new ArrayList<>();
+
+    @BeforeClass
+    public static void seed() throws Exception {
+        config = LoadTestConfig.fromArguments(InstrumentationRegistry.getArguments());
+        new DatasetSeeder(config.connect(), config).seedIfNeeded();
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        new PreferenceManager(context).edit()
+                .clear()
+                .putBoolean(Constants.KEY_IS_SIGNED_IN, true)
+                .putString(Constants.KEY_USERID, LoadTestConfig.userID(0))
+                .putString(Constants.KEY_NAME, "User 00000")
+                .apply();
+    }
+
+    @AfterClass
+    public static void writeReport() throws IOException {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n  \"dataset\": ").append(config.describe()).append(",\n  \"runs\": [\n");
+        for (int i = 0; i < results.size(); i++) {
+            json.append("    ").append(results.get(i)).append(i < results.size() - 1 ? ",\n" : "\n");
+        }
+        json.append("  ]\n}\n");
+        Log.i(TAG, json.toString());
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        File directory = new File(context.getExternalFilesDir(null), "loadtest");
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Unable to create " + directory);
+        }
+        try (FileWriter writer = new FileWriter(new File(directory, "report.json"))) {
+            writer.write(json.toString());
+        }
+    }
+
+    /**
+     * Opens the directory, waits for the first row, then scrolls to the end of the list until
+     * directoryPages pages are loaded or the directory is exhausted
+     */
+    @Test
+    public void directoryLoad() throws Exception {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        Run run = new Run("directory", Metrics.READS_USERS);
+        try (ActivityScenario<UserActivity> scenario = ActivityScenario.launch(new Intent(context, UserActivity.class))) {
+            run.firstItemMs = awaitFirstItem(scenario, R.id.usersRecyclerView, run.startMs);
+            int itemCount = getItemCount(scenario, R.id.usersRecyclerView);
+            for (int page = 1; page < config.directoryPages; page++) {
+                int previousCount = itemCount;
+                scenario.onActivity(activity -> {
+                    RecyclerView recyclerView = activity.findViewById(R.id.usersRecyclerView);
+                    recyclerView.scrollToPosition(previousCount - 1);
+                });
+                itemCount = awaitItemCountAbove(scenario, R.id.usersRecyclerView, previousCount);
+                if (itemCount == previousCount) {
+                    break;
+                }
+            }
+            run.items = itemCount;
+            run.finish();
+        }
+    }
+
+    /**
+     * Opens the largest conversation with an empty local store and waits for its first row
+     */
+    @Test
+    public void conversationOpen() throws Exception {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        MessageStore messageStore = MessageStore.getInstance(context);
+        messageStore.getExecutor().submit(messageStore::clear).get();
+        Intent intent = new Intent(context, ChatActivity.class);
+        intent.putExtra(Constants.KEY_RECEIVER_ID, LoadTestConfig.userID(1));
+        Run run = new Run("conversation", Metrics.READS_MESSAGES);
+        try (ActivityScenario<ChatActivity> scenario = ActivityScenario.launch(intent)) {
+            run.firstItemMs = awaitFirstItem(scenario, R.id.chatRecyclerView, run.startMs);
+            run.items = getItemCount(scenario, R.id.chatRecyclerView);
+            run.finish();
+        }
+    }
+
+    /**
+     * One measured scenario, sampling the heap on a background thread until it finishes
+     */
+    private static class Run {
+        final String name;
+        final String readsCounter;
+        final long readsBefore;
+        final long startMs;
+        final Thread heapSampler;
+        volatile boolean sampling = true;
+        volatile long peakJavaHeap, peakNativeHeap;
+        long firstItemMs;
+        int items;
+
+        Run(String name, String readsCounter) {
+            this.name = name;
+            this.readsCounter = readsCounter;
+            Runtime.getRuntime().gc();
+            readsBefore = Metrics.getCount(readsCounter);
+            heapSampler = new Thread(() -> {
+                while (sampling) {
+                    Runtime runtime = Runtime.getRuntime();
+                    peakJavaHeap = Math.max(peakJavaHeap, runtime.totalMemory() - runtime.freeMemory());
+                    peakNativeHeap = Math.max(peakNativeHeap, Debug.getNativeHeapAllocatedSize());
+                    SystemClock.sleep(20);
+                }
+            }, "HeapSampler");
+            heapSampler.start();
+            startMs = SystemClock.elapsedRealtime();
+        }
+
+        void finish() throws InterruptedException {
+            long totalMs = SystemClock.elapsedRealtime() - startMs;
+            sampling = false;
+            heapSampler.join();
+            results.add(String.format(Locale.US,
+                    "{\"name\": \"%s\", \"timeToFirstItemMs\": %d, \"totalMs\": %d, \"items\": %d, "
+                            + "\"reads\": %d, \"peakJavaHeapBytes\": %d, \"peakNativeHeapBytes\": %d}",
+                    name, firstItemMs, totalMs, items, Metrics.getCount(readsCounter) - readsBefore,
+                    peakJavaHeap, peakNativeHeap));
+        }
+    }
+
+    private static <A extends Activity> long awaitFirstItem(ActivityScenario<A> scenario, int recyclerViewID, long startMs) {
+        long deadline = SystemClock.elapsedRealtime() + config.timeoutMs;
+        int[] childCount = new int[1];
+        while (SystemClock.elapsedRealtime() < deadline) {
+            scenario.onActivity(activity -> {
+                RecyclerView recyclerView = activity.findViewById(recyclerViewID);
+                childCount[0] = recyclerView.getChildCount();
+            });
+            if (childCount[0] > 0) {
+                return SystemClock.elapsedRealtime() - startMs;
+            }
+            SystemClock.sleep(POLL_INTERVAL_MS);
+        }
+        fail("No item shown within " + config.timeoutMs + "ms");
+        return -1;
+    }
+
+    /**
+     * Waits for a page to be appended
+     * @return The new item count, or the old one if nothing was appended before the timeout
+     */
+    private static <A extends Activity> int awaitItemCountAbove(ActivityScenario<A> scenario, int recyclerViewID, int count) {
+        long deadline = SystemClock.elapsedRealtime() + config.timeoutMs;
+        while (SystemClock.elapsedRealtime() < deadline) {
+            int itemCount = getItemCount(scenario, recyclerViewID);
+            if (itemCount > count) {
+                return itemCount;
+            }
+            SystemClock.sleep(POLL_INTERVAL_MS);
+        }
+        return count;
+    }
+
+    private static <A extends Activity> int getItemCount(ActivityScenario<A> scenario, int recyclerViewID) {
+        int[] itemCount = new int[1];
+        scenario.onActivity(activity -> {
+            RecyclerView recyclerView = activity.findViewById(recyclerViewID);
+            RecyclerView.Adapter<?> adapter = recyclerView.getAdapter();
+            itemCount[0] = adapter != null ? adapter.getItemCount() : 0;
+        });
+        return itemCount[0];
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.signin.loadtest;
+
+import android.os.Bundle;
+
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.FirebaseFirestoreSettings;
+import com.google.firebase.firestore.MemoryCacheSettings;
+
+import java.util.Locale;
+
+/**
+ * Size and shape of the seeded dataset and where the emulator runs, read from the
+ * instrumentation arguments, e.g.
+ * -Pandroid.testInstrumentationRunnerArguments.users=10000
+ */
+class LoadTestConfig {
+
+    final int users;
+    final int messages;
+    final int conversations;
+    final double skew;
+    final long randomSeed;
+    final String emulatorHost;
+    final int firestorePort;
+    final int directoryPages;
+    final long timeoutMs;
+
+    private static boolean connected;
+
+    private LoadTestConfig(Bundle arguments) {
+        users = getInt(arguments, "users", 10_000);
+        messages = getInt(arguments, "messages", 100_000);
+        conversations = getInt(arguments, "conversations", 1_000);
+        skew = Double.parseDouble(arguments.getString("skew", "1.1"));
+        randomSeed = Long.parseLong(arguments.getString("randomSeed", "42"));
+        emulatorHost = arguments.getString("emulatorHost", "10.0.2.2");
+        firestorePort = getInt(arguments, "firestorePort", 8080);
+        directoryPages = getInt(arguments, "directoryPages", 10);
+        timeoutMs = Long.parseLong(arguments.getString("timeoutMs", "60000"));
+    }
+
+    static LoadTestConfig fromArguments(Bundle arguments) {
+        return new LoadTestConfig(arguments);
+    }
+
+    /**
+     * Points the app's Firestore instance at the emulator, without a local cache so every run
+     * measures reads from the backend
+     * Must run before anything in the process touches Firestore
+     * @return The Firestore instance the app will use
+     */
+    synchronized FirebaseFirestore connect() {
+        FirebaseFirestore firestore = FirebaseFirestore.getInstance();
+        if (!connected) {
+            firestore.useEmulator(emulatorHost, firestorePort);
+            firestore.setFirestoreSettings(new FirebaseFirestoreSettings.Builder()
+                    .setLocalCacheSettings(MemoryCacheSettings.newBuilder().build())
+                    .build());
+            connected = true;
+        }
+        return firestore;
+    }
+
+    /**
+     * @param index The index of a seeded user
+     * @return The document ID of that user
+     */
+    static String userID(int index) {
+        return String.format(Locale.US, "loadtest_user_%05d", index);
+    }
+
+    String describe() {
+        return String.format(Locale.US,
+                "{\"users\": %d, \"messages\": %d, \"conversations\": %d, \"skew\": %.2f, \"randomSeed\": %d}",
+                users, messages, conversations, skew, randomSeed);
+    }
+
+    private static int getInt(Bundle arguments, String key, int defaultValue) {
+        return Integer.parseInt(arguments.getString(key, String.valueOf(defaultValue)));
+    }
+}
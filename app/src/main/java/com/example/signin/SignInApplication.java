@@ -0,0 +1,20 @@
+package com.example.signin;
+
+import android.app.Application;
+
+import com.example.signin.utilities.DiagnosticsOverlay;
+import com.example.signin.utilities.PreferenceManager;
+
+public class SignInApplication extends Application {
+
+    /**
+     * Starts reading the session off the main thread before the first activity asks for it,
+     * and lets debuggable builds turn on the metrics overlay
+     */
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        PreferenceManager.preload(this);
+        DiagnosticsOverlay.install(this);
+    }
+}
@@ -1,36 +1,39 @@
 package com.example.signin.activities;
 
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.os.Bundle;
-import android.util.Base64;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.view.View;
 
 import androidx.activity.EdgeToEdge;
+import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.graphics.Insets;
 import androidx.core.view.ViewCompat;
 import androidx.core.view.WindowInsetsCompat;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
 
 import com.example.signin.R;
 import com.example.signin.adapters.ChatAdapter;
 import com.example.signin.databinding.ActivityChatBinding;
+import com.example.signin.firebase.MessageOutbox;
+import com.example.signin.firebase.MessageSyncEngine;
+import com.example.signin.firebase.NotificationQueue;
+import com.example.signin.firebase.PresenceTracker;
+import com.example.signin.firebase.RecentConversations;
+import com.example.signin.firebase.UserRepository;
 import com.example.signin.models.ChatMessage;
 import com.example.signin.models.User;
+import com.example.signin.utilities.ChatMessageMerger;
 import com.example.signin.utilities.Constants;
+import com.example.signin.utilities.Conversations;
+import com.example.signin.utilities.Metrics;
 import com.example.signin.utilities.PreferenceManager;
-import com.google.firebase.firestore.DocumentChange;
-import com.google.firebase.firestore.EventListener;
-import com.google.firebase.firestore.FirebaseFirestore;
-import com.google.firebase.firestore.QuerySnapshot;
 
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Locale;
 import java.util.Objects;
 
 public class ChatActivity extends AppCompatActivity {
@@ -41,108 +44,248 @@ public class ChatActivity extends AppCompatActivity {
 
     private ChatAdapter chatAdapter;
     private PreferenceManager preferenceManager;
-    private FirebaseFirestore database;
+    private String conversationID;
+    private MessageSyncEngine messageSyncEngine;
+    private long visibleSince;
+    private boolean hasNewMessages;
+    private PresenceTracker presenceTracker;
+    private String scrollToMessageID;
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         binding = ActivityChatBinding.inflate(getLayoutInflater());
         setContentView(binding.getRoot());
-        loadReceiverDetails();
+        if (!loadReceiverDetails()){
+            finish();
+            return;
+        }
         setListeners();
         init();
         ListenMessage();
     }
 
+    /**
+     * Attaches the live listener only while the chat is visible, messages that arrive while the
+     * app is in the background reach the local store through push instead
+     */
+    @Override
+    protected void onStart() {
+        super.onStart();
+        messageSyncEngine.start();
+        presenceTracker.start();
+        NotificationQueue.getInstance(getApplicationContext()).setVisibleConversation(conversationID);
+        visibleSince = System.currentTimeMillis();
+        hasNewMessages = false;
+        RecentConversations.markRead(preferenceManager.getString(Constants.KEY_USERID), receiverUser.id, false);
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        messageSyncEngine.stop();
+        presenceTracker.stop();
+        NotificationQueue.getInstance(getApplicationContext()).setVisibleConversation(null);
+        RecentConversations.markRead(preferenceManager.getString(Constants.KEY_USERID), receiverUser.id, hasNewMessages);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        // Null when onCreate() finished early for lack of a receiver
+        if (chatAdapter != null){
+            chatAdapter.release();
+        }
+    }
+
     private void init(){
         preferenceManager = new PreferenceManager(getApplicationContext());
         chatMessages = new ArrayList<>();
         chatAdapter = new ChatAdapter(
-                chatMessages,
-                getBitmapFromEncodedString(receiverUser.image),
+                receiverUser,
                 preferenceManager.getString(Constants.KEY_USERID)
         );
         binding.chatRecyclerView.setAdapter(chatAdapter);
-        database = FirebaseFirestore.getInstance();
+        conversationID = Conversations.getConversationID(
+                preferenceManager.getString(Constants.KEY_USERID), receiverUser.id);
+        presenceTracker = new PresenceTracker(conversationID,
+                preferenceManager.getString(Constants.KEY_USERID), receiverUser.id, this::showStatus);
     }
 
-    private void sendMessage(){
-        HashMap<String, Object> message = new HashMap<>();
-
-        message.put(Constants.KEY_SENDER_ID, preferenceManager.getString(Constants.KEY_USERID));
-        message.put(Constants.KEY_RECEIVER_ID, receiverUser.id);
-
-        message.put(Constants.KEY_MESSAGE, binding.inputMessage.getText().toString());
-        message.put(Constants.KEY_TIMESTAMP, new Date());
+    /**
+     * Shows the receiver's presence under their name, nothing is shown while they are offline
+     */
+    private void showStatus(PresenceTracker.Status status){
+        if (status == PresenceTracker.Status.OFFLINE){
+            binding.textStatus.setVisibility(View.GONE);
+            return;
+        }
+        binding.textStatus.setText(status == PresenceTracker.Status.TYPING
+                ? R.string.status_typing : R.string.status_online);
+        binding.textStatus.setVisibility(View.VISIBLE);
+    }
 
-        database.collection(Constants.KEY_COLLECTION_CHAT).add(message);
+    /**
+     * Sends the typed message through the outbox
+     * The message is shown immediately as pending and is confirmed when Firestore's copy
+     * arrives through the sync engine
+     */
+    private void sendMessage(){
+        String text = binding.inputMessage.getText().toString();
+        if (text.trim().isEmpty()){
+            return;
+        }
+        MessageOutbox messageOutbox = MessageOutbox.getInstance(getApplicationContext());
+        ChatMessage chatMessage = messageOutbox.createMessage(conversationID,
+                preferenceManager.getString(Constants.KEY_USERID), receiverUser.id, text);
+        onMessagesLoaded(Collections.singletonList(chatMessage));
+        messageOutbox.send(chatMessage, receiverUser);
         binding.inputMessage.setText(null);
 
     }
 
+    /**
+     * Creates the conversation's sync engine, which is started and stopped with the activity
+     * The newest messages are rendered from the local store right away, and only messages newer
+     * than the conversation's watermark are requested from Firestore. Older messages are pulled
+     * in on demand by loadOlderMessages() as the user scrolls up
+     * A chat opened at a search hit starts around that message instead, and pages newer messages
+     * in as the user scrolls down
+     */
     private void ListenMessage(){
-        database.collection(Constants.KEY_COLLECTION_CHAT)
-                .whereEqualTo(Constants.KEY_SENDER_ID,
-                        preferenceManager.getString(Constants.KEY_USERID))
-                .whereEqualTo(Constants.KEY_RECEIVER_ID, receiverUser.id)
-                .addSnapshotListener(eventListener);
-
-        database.collection(Constants.KEY_COLLECTION_CHAT)
-                .whereEqualTo(Constants.KEY_SENDER_ID,
-                        receiverUser.id)
-                .whereEqualTo(Constants.KEY_RECEIVER_ID,
-                        preferenceManager.getString(Constants.KEY_USERID))
-                .addSnapshotListener(eventListener);
+        messageSyncEngine = new MessageSyncEngine(getApplicationContext(), conversationID, this::onMessagesLoaded);
+        scrollToMessageID = getIntent().getStringExtra(Constants.KEY_MESSAGE_ID);
+        if (scrollToMessageID != null){
+            messageSyncEngine.setAnchor(scrollToMessageID);
+        }
     }
 
-    private final EventListener<QuerySnapshot> eventListener = ((value, error) -> {
-        if (error != null){
-            return;
+    private void loadOlderMessages(){
+        if (!chatMessages.isEmpty()){
+            messageSyncEngine.loadOlderMessages(chatMessages.get(0).timestamp);
         }
-        if (value != null){
-            int count = chatMessages.size();
-            for (DocumentChange documentChange:value.getDocumentChanges()){
-                if (documentChange.getType() == DocumentChange.Type.ADDED){
-                    ChatMessage chatMessage = new ChatMessage();
-                    chatMessage.senderID = documentChange.getDocument().getString(Constants.KEY_SENDER_ID);
-                    chatMessage.receiverID = documentChange.getDocument().getString(Constants.KEY_RECEIVER_ID);
-                    chatMessage.message = documentChange.getDocument().getString(Constants.KEY_MESSAGE);
-                    chatMessage.dateTime = getReadableDateTime(
-                            documentChange.getDocument().getDate(Constants.KEY_TIMESTAMP));
-
-                    chatMessage.dateObject = documentChange.getDocument().getDate(Constants.KEY_TIMESTAMP);
-                    chatMessages.add(chatMessage);
-                }
-            }
-            Collections.sort(chatMessages, (obj1, obj2) -> obj1.dateObject.compareTo(obj2.dateObject));
-            if (count == 0){
-                chatAdapter.notifyDataSetChanged();
-            } else {
-                chatAdapter.notifyItemRangeChanged(chatMessages.size(), chatMessages.size());
+    }
 
-                binding.chatRecyclerView.smoothScrollToPosition(chatMessages.size()-1 );
+    /**
+     * Merges a batch into the displayed conversation, the batch's text is measured in the
+     * background while the list difference is computed
+     */
+    private void onMessagesLoaded(List<ChatMessage> batch){
+        for (ChatMessage chatMessage : batch){
+            if (!hasNewMessages && chatMessage.timestamp >= visibleSince && receiverUser.id.equals(chatMessage.senderID)){
+                hasNewMessages = true;
             }
-            binding.chatRecyclerView.setVisibility(View.VISIBLE);
         }
+        long start = Metrics.start();
+        chatAdapter.precomputeText(batch);
+        ChatMessage newest = chatMessages.isEmpty() ? null : chatMessages.get(chatMessages.size() - 1);
+        if (ChatMessageMerger.merge(chatMessages, new ArrayList<>(batch)) > 0){
+            int lastPosition = chatMessages.size() - 1;
+            // A page below an anchored window is read, not a new message to follow
+            boolean hasNewerMessages = newest != null && chatMessages.get(lastPosition) != newest
+                    && messageSyncEngine.isShowingNewest();
+            List<ChatMessage> submitted = new ArrayList<>(chatMessages);
+            chatAdapter.submitList(submitted, () -> {
+                Metrics.recordSince(Metrics.SNAPSHOT_TO_RENDER_CHAT, start);
+                if (scrollToMessageID != null){
+                    scrollToMessage(submitted);
+                } else if (hasNewerMessages){
+                    binding.chatRecyclerView.smoothScrollToPosition(lastPosition);
+                }
+            });
+        }
+        binding.chatRecyclerView.setVisibility(View.VISIBLE);
         binding.progressBar.setVisibility(View.GONE);
-    });
+    }
 
-    private Bitmap getBitmapFromEncodedString(String encodedImage){
-        byte[] bytes = Base64.decode(encodedImage, Base64.DEFAULT);
-        return BitmapFactory.decodeByteArray(bytes, 0, bytes.length);
+    /**
+     * Brings the message the chat was opened at into view, a third of the way down the screen
+     * Tried on every update until the message shows up, a message that isn't stored is only
+     * delivered by the live listener, if at all
+     */
+    private void scrollToMessage(List<ChatMessage> displayed){
+        for (int position = 0; position < displayed.size(); position++){
+            if (displayed.get(position).id.equals(scrollToMessageID)){
+                LinearLayoutManager layoutManager = (LinearLayoutManager) binding.chatRecyclerView.getLayoutManager();
+                if (layoutManager != null){
+                    layoutManager.scrollToPositionWithOffset(position, binding.chatRecyclerView.getHeight() / 3);
+                }
+                scrollToMessageID = null;
+                return;
+            }
+        }
     }
 
-    private void loadReceiverDetails(){
-        receiverUser = (User) getIntent().getSerializableExtra(Constants.KEY_USER);
-        binding.textName.setText(receiverUser.name);
+    /**
+     * Resolves the receiver from the UserRepository by the ID passed in the Intent
+     * A receiver who isn't in memory is taken from the name and avatar version a notification
+     * passes along. Otherwise, for example after the process was restarted, they are fetched
+     * once and filled in when the read returns
+     * @return false if the Intent names no receiver
+     */
+    private boolean loadReceiverDetails(){
+        String receiverID = getIntent().getStringExtra(Constants.KEY_RECEIVER_ID);
+        if (receiverID == null){
+            return false;
+        }
+        UserRepository userRepository = UserRepository.getInstance();
+        receiverUser = userRepository.get(receiverID);
+        if (receiverUser != null){
+            binding.textName.setText(receiverUser.name);
+            return true;
+        }
+        receiverUser = new User();
+        receiverUser.id = receiverID;
+        String receiverName = getIntent().getStringExtra(Constants.KEY_NAME);
+        if (receiverName != null){
+            receiverUser.name = receiverName;
+            receiverUser.imageVersion = getIntent().getStringExtra(Constants.KEY_IMAGE_VERSION);
+            userRepository.putIfAbsent(receiverUser);
+            binding.textName.setText(receiverName);
+            return true;
+        }
+        userRepository.load(receiverID, user -> {
+            if (user == null || isDestroyed()){
+                return;
+            }
+            receiverUser = user;
+            binding.textName.setText(user.name);
+            chatAdapter.setReceiverUser(user);
+        });
+        return true;
     }
 
     private void setListeners(){
         binding.imageBack.setOnClickListener(v -> onBackPressed());
         binding.layoutSend.setOnClickListener(v -> sendMessage());
-    }
+        binding.inputMessage.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
 
-    private String getReadableDateTime(Date date){
-        return new SimpleDateFormat("MMM dd, yyyy - hh:mm a", Locale.getDefault()).format(date);
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                presenceTracker.onTextChanged(s.length() > 0);
+            }
+        });
+        binding.chatRecyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+                LinearLayoutManager layoutManager = (LinearLayoutManager) recyclerView.getLayoutManager();
+                if (layoutManager == null){
+                    return;
+                }
+                if (dy < 0 && layoutManager.findFirstVisibleItemPosition() <= Constants.MESSAGE_PREFETCH_DISTANCE){
+                    loadOlderMessages();
+                } else if (dy > 0 && layoutManager.findLastVisibleItemPosition()
+                        >= layoutManager.getItemCount() - 1 - Constants.MESSAGE_PREFETCH_DISTANCE){
+                    messageSyncEngine.loadNewerMessages();
+                }
+            }
+        });
     }
 
 }
\ No newline at end of file
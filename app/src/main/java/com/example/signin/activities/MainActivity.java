@@ -1,28 +1,52 @@
 package com.example.signin.activities;
 
+import android.Manifest;
 import android.content.Intent;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
+import android.content.pm.PackageManager;
+import android.os.Build;
 import android.os.Bundle;
-import android.util.Base64;
+import android.os.Looper;
+import android.view.View;
 import android.widget.Toast;
 
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.core.app.ActivityCompat;
+import androidx.core.content.ContextCompat;
 
+import com.example.signin.adapters.RecentConversationsAdapter;
+import com.example.signin.database.MessageStore;
 import com.example.signin.databinding.ActivityMainBinding;
+import com.example.signin.firebase.ListenerRegistry;
+import com.example.signin.firebase.MessageOutbox;
+import com.example.signin.firebase.RecentConversations;
+import com.example.signin.firebase.UserRepository;
+import com.example.signin.listeners.ConversationListener;
+import com.example.signin.models.RecentConversation;
+import com.example.signin.models.User;
+import com.example.signin.utilities.AvatarCache;
 import com.example.signin.utilities.Constants;
+import com.example.signin.utilities.ImageLoader;
+import com.example.signin.utilities.Metrics;
 import com.example.signin.utilities.PreferenceManager;
+import com.example.signin.utilities.ProfileCache;
+import com.example.signin.utilities.StartupTracer;
 import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
 import com.google.firebase.firestore.FieldValue;
 import com.google.firebase.firestore.FirebaseFirestore;
 import com.google.firebase.messaging.FirebaseMessaging;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 
-public class MainActivity extends AppCompatActivity {
+public class MainActivity extends AppCompatActivity implements ConversationListener {
+
+    private static final int REQUEST_CODE_NOTIFICATIONS = 1;
 
     private ActivityMainBinding binding;
     private PreferenceManager preferenceManager;
+    private RecentConversationsAdapter conversationsAdapter;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -30,23 +54,119 @@ public class MainActivity extends AppCompatActivity {
         binding = ActivityMainBinding.inflate(getLayoutInflater());
         setContentView(binding.getRoot());
         preferenceManager = new PreferenceManager(getApplicationContext());
+        StartupTracer.traceFirstFrame(this);
         loadUserDetails();
-        getToken();
         setListeners();
+        conversationsAdapter = new RecentConversationsAdapter(this);
+        binding.conversationsRecyclerView.setAdapter(conversationsAdapter);
+        listenConversations();
+        runAfterFirstFrame();
+    }
+
+    /**
+     * Holds back work the first screen doesn't need until the main thread goes idle, which is
+     * after the first frame has been drawn
+     */
+    private void runAfterFirstFrame(){
+        Looper.myQueue().addIdleHandler(() -> {
+            if (!isFinishing()) {
+                MessageOutbox.getInstance(getApplicationContext()).flush();
+                getToken();
+                requestNotificationPermission();
+            }
+            return false;
+        });
     }
 
     private void setListeners(){
         binding.imageLogout.setOnClickListener(v -> signOut());
+        binding.imageSearch.setOnClickListener(v ->
+                startActivity(new Intent(getApplicationContext(), SearchActivity.class)));
 
         binding.fabNewChat.setOnClickListener(v ->
                 startActivity(new Intent(getApplicationContext(), UserActivity.class)));
     }
 
+    /**
+     * Shows the signed in user's name and avatar
+     * An account from before avatars moved to their own documents only has the inline image,
+     * which is kept in a file of its own, so it is read in the background
+     */
     private void loadUserDetails(){
         binding.textName.setText(preferenceManager.getString(Constants.KEY_NAME));
-        byte[] imageBytes = Base64.decode(preferenceManager.getString(Constants.KEY_IMAGE), Base64.DEFAULT);
-        Bitmap profileImageBitmap = BitmapFactory.decodeByteArray(imageBytes, 0, imageBytes.length);
-        binding.imageProfile.setImageBitmap(profileImageBitmap);
+        User user = new User();
+        user.id = preferenceManager.getString(Constants.KEY_USERID);
+        user.imageVersion = preferenceManager.getString(Constants.KEY_IMAGE_VERSION);
+        if (user.imageVersion != null){
+            ImageLoader.getInstance(getApplicationContext()).loadAvatar(binding.imageProfile, user);
+            return;
+        }
+        preferenceManager.getStringAsync(Constants.KEY_IMAGE, image -> {
+            if (isDestroyed()){
+                return;
+            }
+            user.image = image;
+            ImageLoader.getInstance(getApplicationContext()).loadAvatar(binding.imageProfile, user);
+        });
+    }
+
+    /**
+     * Attaches a single bounded listener to the user's recent conversations, newest first
+     * Each entry is a summary kept up to date on every send, so the inbox never has to scan
+     * the chat collection
+     * The listener is shared through the ListenerRegistry and only attached while the activity
+     * is started, so a backgrounded app holds no open snapshot listeners
+     */
+    private void listenConversations(){
+        ListenerRegistry.getInstance().subscribe(this,
+                RecentConversations.getInboxQuery(preferenceManager.getString(Constants.KEY_USERID)),
+                (value, error) -> {
+                    long start = Metrics.start();
+                    binding.progressBar.setVisibility(View.GONE);
+                    if (error != null || value == null){
+                        return;
+                    }
+                    if (!value.getMetadata().isFromCache()){
+                        Metrics.increment(Metrics.READS_INBOX, value.getDocumentChanges().size());
+                    }
+                    List<RecentConversation> recentConversations = new ArrayList<>();
+                    for (DocumentSnapshot documentSnapshot : value.getDocuments()){
+                        RecentConversation recentConversation = new RecentConversation();
+                        recentConversation.counterpartID = documentSnapshot.getId();
+                        recentConversation.counterpartName = documentSnapshot.getString(Constants.KEY_COUNTERPART_NAME);
+                        recentConversation.counterpartImageVersion = documentSnapshot.getString(Constants.KEY_COUNTERPART_IMAGE_VERSION);
+                        recentConversation.lastMessage = documentSnapshot.getString(Constants.KEY_LAST_MESSAGE);
+                        recentConversation.timestamp = documentSnapshot.getDate(Constants.KEY_TIMESTAMP);
+                        Long unreadCount = documentSnapshot.getLong(Constants.KEY_UNREAD_COUNT);
+                        recentConversation.unreadCount = unreadCount != null ? unreadCount : 0;
+                        recentConversations.add(recentConversation);
+                    }
+                    conversationsAdapter.submitList(recentConversations, () ->
+                            Metrics.recordSince(Metrics.SNAPSHOT_TO_RENDER_INBOX, start));
+                    binding.conversationsRecyclerView.setVisibility(View.VISIBLE);
+                    StartupTracer.traceFirstData(getApplicationContext());
+                });
+    }
+
+    @Override
+    public void onConversationClicked(User user) {
+        Intent intent = new Intent(getApplicationContext(), ChatActivity.class);
+        UserRepository.getInstance().putIfAbsent(user);
+        intent.putExtra(Constants.KEY_RECEIVER_ID, user.id);
+        startActivity(intent);
+    }
+
+    /**
+     * Asks for permission to post message notifications, which Android 13 and above
+     * require at runtime
+     */
+    private void requestNotificationPermission(){
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU
+                && ContextCompat.checkSelfPermission(this, Manifest.permission.POST_NOTIFICATIONS)
+                != PackageManager.PERMISSION_GRANTED){
+            ActivityCompat.requestPermissions(this,
+                    new String[]{Manifest.permission.POST_NOTIFICATIONS}, REQUEST_CODE_NOTIFICATIONS);
+        }
     }
 
     private void showToast(String message){
@@ -57,12 +177,20 @@ public class MainActivity extends AppCompatActivity {
         FirebaseMessaging.getInstance().getToken().addOnSuccessListener(this::updateToken);
     }
 
+    /**
+     * Writes the FCM token to the user's document, skipping the write when the stored
+     * token is already the current one
+     * @param token The FCM token of this device
+     */
     private void updateToken(String token){
+        if (token.equals(preferenceManager.getString(Constants.KEY_FCM_TOKEN))){
+            return;
+        }
         FirebaseFirestore database = FirebaseFirestore.getInstance();
         DocumentReference documentReference = database.collection(Constants.KEY_COLLECTION_USERS)
                 .document(preferenceManager.getString(Constants.KEY_USERID));
         documentReference.update(Constants.KEY_FCM_TOKEN, token)
-                .addOnSuccessListener(unused -> showToast("Token updated successfully"))
+                .addOnSuccessListener(unused -> preferenceManager.putString(Constants.KEY_FCM_TOKEN, token))
                 .addOnFailureListener(e -> showToast("Unable to update token"));
     }
 
@@ -76,6 +204,10 @@ public class MainActivity extends AppCompatActivity {
         documentReference.update(updates)
                 .addOnSuccessListener(unused -> {
                     preferenceManager.clear();
+                    ProfileCache.getInstance(getApplicationContext()).clear();
+                    AvatarCache.getInstance(getApplicationContext()).clear();
+                    MessageStore messageStore = MessageStore.getInstance(getApplicationContext());
+                    messageStore.getExecutor().execute(messageStore::clear);
                     startActivity(new Intent(getApplicationContext(), SignInActivity.class));
                     finish();
                 }).addOnFailureListener(e -> showToast("Unable to log out"));
@@ -0,0 +1,110 @@
+package com.example.signin.activities;
+
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.Editable;
+import android.text.TextWatcher;
+import android.view.View;
+
+import androidx.appcompat.app.AppCompatActivity;
+
+import com.example.signin.adapters.SearchResultsAdapter;
+import com.example.signin.database.MessageStore;
+import com.example.signin.databinding.ActivitySearchBinding;
+import com.example.signin.listeners.SearchResultListener;
+import com.example.signin.models.MessageSearchResult;
+import com.example.signin.utilities.Constants;
+import com.example.signin.utilities.Metrics;
+import com.example.signin.utilities.PreferenceManager;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class SearchActivity extends AppCompatActivity implements SearchResultListener {
+
+    private static final long SEARCH_DELAY_MS = 150;
+
+    private ActivitySearchBinding binding;
+    private SearchResultsAdapter searchResultsAdapter;
+    private MessageStore messageStore;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Runnable search = this::search;
+    private int searchGeneration;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        binding = ActivitySearchBinding.inflate(getLayoutInflater());
+        setContentView(binding.getRoot());
+        messageStore = MessageStore.getInstance(getApplicationContext());
+        PreferenceManager preferenceManager = new PreferenceManager(getApplicationContext());
+        searchResultsAdapter = new SearchResultsAdapter(preferenceManager.getString(Constants.KEY_USERID), this);
+        binding.resultsRecyclerView.setAdapter(searchResultsAdapter);
+        setListeners();
+        binding.inputSearch.requestFocus();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mainHandler.removeCallbacks(search);
+    }
+
+    private void setListeners(){
+        binding.imageBack.setOnClickListener(v -> onBackPressed());
+        binding.inputSearch.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                mainHandler.removeCallbacks(search);
+                mainHandler.postDelayed(search, SEARCH_DELAY_MS);
+            }
+        });
+    }
+
+    /**
+     * Searches the messages stored on the device, once typing pauses for SEARCH_DELAY_MS
+     * The query runs on the store's thread against its full-text index, and only the result of
+     * the latest query is shown, a slower earlier query can't overwrite it
+     */
+    private void search(){
+        String query = binding.inputSearch.getText().toString();
+        int generation = ++searchGeneration;
+        if (query.trim().isEmpty()){
+            showResults(new ArrayList<>(), false);
+            return;
+        }
+        messageStore.getExecutor().execute(() -> {
+            long start = Metrics.start();
+            List<MessageSearchResult> results = messageStore.searchMessages(query, Constants.SEARCH_RESULT_LIMIT);
+            Metrics.recordSince(Metrics.QUERY_SEARCH, start);
+            mainHandler.post(() -> {
+                if (generation == searchGeneration && !isDestroyed()){
+                    showResults(results, true);
+                }
+            });
+        });
+    }
+
+    private void showResults(List<MessageSearchResult> results, boolean hasQuery){
+        searchResultsAdapter.submitList(results);
+        binding.textErrorMessage.setVisibility(hasQuery && results.isEmpty() ? View.VISIBLE : View.GONE);
+    }
+
+    @Override
+    public void onSearchResultClicked(MessageSearchResult result) {
+        Intent intent = new Intent(getApplicationContext(), ChatActivity.class);
+        intent.putExtra(Constants.KEY_RECEIVER_ID, searchResultsAdapter.getCounterpartID(result));
+        intent.putExtra(Constants.KEY_MESSAGE_ID, result.chatMessage.id);
+        startActivity(intent);
+    }
+}
@@ -1,5 +1,6 @@
 package com.example.signin.activities;
 
+import android.content.Context;
 import android.content.Intent;
 import android.os.Bundle;
 import android.util.Patterns;
@@ -9,12 +10,17 @@ import android.widget.Toast;
 import androidx.appcompat.app.AppCompatActivity;
 
 import com.example.signin.databinding.ActivitySignInBinding;
+import com.example.signin.firebase.RecentConversations;
+import com.example.signin.models.User;
 import com.example.signin.utilities.Constants;
 import com.example.signin.utilities.PreferenceManager;
+import com.example.signin.utilities.ProfileCache;
+import com.google.android.gms.tasks.Task;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseUser;
 import com.google.firebase.firestore.DocumentSnapshot;
 import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.messaging.FirebaseMessaging;
 
 public class SignInActivity extends AppCompatActivity {
 
@@ -24,15 +30,35 @@ public class SignInActivity extends AppCompatActivity {
     /**
      * This is called on app creation and orientation changes to bind Views and call listeners
      * Uses view binding to automatically associate with Views
+     * Users who are already signed in are sent straight to the main activity before the
+     * sign in form is ever inflated. Which of the two happens is decided once the session has
+     * loaded, so the main thread never waits on the disk for it
      *
      * @param savedInstanceState param for orientation changes
      */
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        preferenceManager = new PreferenceManager(getApplicationContext());
+        preferenceManager.whenLoaded(this::route);
+    }
+
+    /**
+     * Opens the main activity for a signed in user, and shows the sign in form to anyone else
+     * Runs synchronously from onCreate() when the session is already loaded, so the form's
+     * views exist in time for their saved state to be restored
+     */
+    private void route() {
+        if (isDestroyed()) {
+            return;
+        }
+        if (preferenceManager.getBoolean(Constants.KEY_IS_SIGNED_IN)) {
+            startActivity(new Intent(getApplicationContext(), MainActivity.class));
+            finish();
+            return;
+        }
         binding = ActivitySignInBinding.inflate(getLayoutInflater());
         setContentView(binding.getRoot());
-        preferenceManager = new PreferenceManager(getApplicationContext());
         setListeners();
     }
 
@@ -68,9 +94,8 @@ public class SignInActivity extends AppCompatActivity {
      * First hides the "sign in" button and replaces it with a progress bar
      * Then the function retrieves an instance of the project's Firebase Auth
      * Then the e-mail and password from the user input is checked if exists and is correct
-     * using signInWithEmailAndPassword(). The user data is then retrieved using getCurrentUser()
-     * If a match is found then the user is directed to the main activity and details such as
-     * sign in status, userid, name, and image are saved into a Preference object
+     * using signInWithEmailAndPassword(). Once the user ID is known the rest of the sign in is
+     * handed to onAuthenticated()
      * If a match isn't found then a Toast pops up saying unable to login
      */
     private void SignIn() {
@@ -80,31 +105,9 @@ public class SignInActivity extends AppCompatActivity {
 
         auth.signInWithEmailAndPassword(binding.inputEmail.getText().toString(), binding.inputPassword.getText().toString())
                 .addOnCompleteListener(task -> {
-                    if (task.isSuccessful()) {
-                        FirebaseUser user = auth.getCurrentUser();
-                        if (user != null) {
-                            FirebaseFirestore database = FirebaseFirestore.getInstance();
-                            database.collection(Constants.KEY_COLLECTION_USERS)
-                                    .document(user.getUid())
-                                    .get()
-                                    .addOnCompleteListener(userTask -> {
-                                        if (userTask.isSuccessful() && userTask.getResult() != null) {
-                                            DocumentSnapshot documentSnapshot = userTask.getResult();
-                                            preferenceManager.putBoolean(Constants.KEY_IS_SIGNED_IN, true);
-                                            preferenceManager.putString(Constants.KEY_USERID, documentSnapshot.getId());
-                                            preferenceManager.putString(Constants.KEY_NAME, documentSnapshot.getString(Constants.KEY_NAME));
-                                            preferenceManager.putString(Constants.KEY_IMAGE, documentSnapshot.getString(Constants.KEY_IMAGE));
-
-                                            showToast("Login successful!");
-                                            Intent intent = new Intent(getApplicationContext(), MainActivity.class);
-                                            intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_CLEAR_TASK);
-                                            startActivity(intent);
-                                        } else {
-                                            loading(false);
-                                            showToast("User data retrieval failed.");
-                                        }
-                                    });
-                        }
+                    FirebaseUser user = auth.getCurrentUser();
+                    if (task.isSuccessful() && user != null) {
+                        onAuthenticated(user.getUid());
                     } else {
                         loading(false);
                         showToast("unable to login");
@@ -112,6 +115,92 @@ public class SignInActivity extends AppCompatActivity {
                 });
     }
 
+    /**
+     * Starts the profile read, the token registration and the inbox prefetch together
+     * A user whose profile is still cached, because their session ended without a sign out, is
+     * let in straight away with it, and the profile read then refreshes it in the background. Anyone else waits for
+     * the profile read, and the user is directed to the main activity once details such as
+     * sign in status, userid, name, and image are saved into a Preference object
+     * @param userID The ID of the authenticated user
+     */
+    private void onAuthenticated(String userID) {
+        Context context = getApplicationContext();
+        PreferenceManager session = preferenceManager;
+        ProfileCache profileCache = ProfileCache.getInstance(context);
+
+        Task<DocumentSnapshot> profileTask = FirebaseFirestore.getInstance()
+                .collection(Constants.KEY_COLLECTION_USERS)
+                .document(userID)
+                .get();
+        registerToken(session, userID);
+        RecentConversations.getInboxQuery(userID).get();
+
+        profileCache.get(userID, cachedProfile -> {
+            if (cachedProfile != null) {
+                saveSession(session, cachedProfile);
+                openMainActivity();
+            }
+            profileTask.addOnCompleteListener(userTask -> {
+                if (userTask.isSuccessful() && userTask.getResult() != null && userTask.getResult().exists()) {
+                    DocumentSnapshot documentSnapshot = userTask.getResult();
+                    User profile = new User();
+                    profile.id = documentSnapshot.getId();
+                    profile.name = documentSnapshot.getString(Constants.KEY_NAME);
+                    profile.email = documentSnapshot.getString(Constants.KEY_EMAIL);
+                    profile.image = documentSnapshot.getString(Constants.KEY_IMAGE);
+                    profile.imageVersion = documentSnapshot.getString(Constants.KEY_IMAGE_VERSION);
+                    profileCache.put(profile);
+                    if (cachedProfile == null) {
+                        saveSession(session, profile);
+                        openMainActivity();
+                    } else if (userID.equals(session.getString(Constants.KEY_USERID))) {
+                        saveSession(session, profile);
+                    }
+                } else if (cachedProfile == null) {
+                    loading(false);
+                    showToast("User data retrieval failed.");
+                }
+            });
+        });
+    }
+
+    /**
+     * Saves the signed in user's details into the Preference object in a single write
+     * @param session The Preference object
+     * @param profile The signed in user's profile
+     */
+    private static void saveSession(PreferenceManager session, User profile) {
+        session.edit()
+                .putBoolean(Constants.KEY_IS_SIGNED_IN, true)
+                .putString(Constants.KEY_USERID, profile.id)
+                .putString(Constants.KEY_NAME, profile.name)
+                .putString(Constants.KEY_IMAGE, profile.image)
+                .putString(Constants.KEY_IMAGE_VERSION, profile.imageVersion)
+                .apply();
+    }
+
+    /**
+     * Writes this device's FCM token to the user's document, and remembers it so the main
+     * activity doesn't write it again
+     * @param session The Preference object
+     * @param userID The ID of the signed in user
+     */
+    private static void registerToken(PreferenceManager session, String userID) {
+        FirebaseMessaging.getInstance().getToken().addOnSuccessListener(token ->
+                FirebaseFirestore.getInstance()
+                        .collection(Constants.KEY_COLLECTION_USERS)
+                        .document(userID)
+                        .update(Constants.KEY_FCM_TOKEN, token)
+                        .addOnSuccessListener(unused -> session.putString(Constants.KEY_FCM_TOKEN, token)));
+    }
+
+    private void openMainActivity() {
+        showToast("Login successful!");
+        Intent intent = new Intent(getApplicationContext(), MainActivity.class);
+        intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_CLEAR_TASK);
+        startActivity(intent);
+    }
+
     /**
      * Helper function used to hide or display the sign in button and progress bar
      *
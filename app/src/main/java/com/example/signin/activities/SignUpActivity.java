@@ -2,7 +2,6 @@ package com.example.signin.activities;
 
 import android.content.Intent;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Bundle;
 import android.provider.MediaStore;
@@ -16,15 +15,17 @@ import androidx.activity.result.contract.ActivityResultContracts;
 import androidx.appcompat.app.AppCompatActivity;
 
 import com.example.signin.databinding.ActivitySignUpBinding;
+import com.example.signin.models.User;
 import com.example.signin.utilities.Constants;
+import com.example.signin.utilities.ImageLoader;
 import com.example.signin.utilities.PreferenceManager;
+import com.example.signin.utilities.ProfileCache;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseUser;
 import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.WriteBatch;
 
 import java.io.ByteArrayOutputStream;
-import java.io.FileNotFoundException;
-import java.io.InputStream;
 import java.util.HashMap;
 
 public class SignUpActivity extends AppCompatActivity {
@@ -33,6 +34,8 @@ public class SignUpActivity extends AppCompatActivity {
 
     private PreferenceManager preferenceManager;
     private String encodeImage;
+    private String encodeThumbnail;
+    private int imagePicks;
 
     /**
      * This is called on app creation and orientation changes to bind Views and call listeners
@@ -88,9 +91,11 @@ public class SignUpActivity extends AppCompatActivity {
      * and duplicate checks are made by createUserWithEmailAndPassword().
      * If successful, preliminary login activities such as saving the login metadata into a Preference object also occurs since
      * signing up logs the user in
-     * The sign up detail are all put into a hashmap, since all of the inputs are strings, including the image
-     * which is encoded into Base64
-     * Then the hashmap is added to the cloud database, and the user is redirected to the main activity
+     * The sign up detail are all put into a hashmap, since all of the inputs are strings
+     * The avatar, encoded into Base64, is stored in its own document with a smaller thumbnail
+     * variant next to it, so reading the user document never downloads image bytes. The user
+     * document only keeps the avatar's version, which lets clients cache the image
+     * All three documents are written in one batch, and the user is redirected to the main activity
 
      * If the sign up fails then a Toast will display the exception message
      */
@@ -106,19 +111,37 @@ public class SignUpActivity extends AppCompatActivity {
                         FirebaseUser firebaseUser = auth.getCurrentUser();
                         if (firebaseUser != null) {
                             String userId = firebaseUser.getUid();
+                            String imageVersion = String.valueOf(System.currentTimeMillis());
                             HashMap<String, String> user = new HashMap<>();
                             user.put(Constants.KEY_NAME, binding.inputName.getText().toString());
                             user.put(Constants.KEY_EMAIL, binding.inputEmail.getText().toString());
-                            user.put(Constants.KEY_IMAGE, encodeImage);
-                            database.collection(Constants.KEY_COLLECTION_USERS)
-                                    .document(userId)
-                                    .set(user)
-                                    .addOnSuccessListener(documentReference -> {
+                            user.put(Constants.KEY_IMAGE_VERSION, imageVersion);
+                            HashMap<String, String> avatar = new HashMap<>();
+                            avatar.put(Constants.KEY_IMAGE, encodeImage);
+                            avatar.put(Constants.KEY_IMAGE_VERSION, imageVersion);
+                            HashMap<String, String> thumbnail = new HashMap<>();
+                            thumbnail.put(Constants.KEY_IMAGE, encodeThumbnail);
+                            thumbnail.put(Constants.KEY_IMAGE_VERSION, imageVersion);
+
+                            WriteBatch batch = database.batch();
+                            batch.set(database.collection(Constants.KEY_COLLECTION_USERS).document(userId), user);
+                            batch.set(database.collection(Constants.KEY_COLLECTION_AVATARS).document(userId), avatar);
+                            batch.set(database.collection(Constants.KEY_COLLECTION_AVATAR_THUMBNAILS).document(userId), thumbnail);
+                            batch.commit()
+                                    .addOnSuccessListener(unused -> {
                                         loading(false);
-                                        preferenceManager.putBoolean(Constants.KEY_IS_SIGNED_IN, true);
-                                        preferenceManager.putString(Constants.KEY_USERID, userId);
-                                        preferenceManager.putString(Constants.KEY_NAME, binding.inputName.getText().toString());
-                                        preferenceManager.putString(Constants.KEY_IMAGE, encodeImage);
+                                        preferenceManager.edit()
+                                                .putBoolean(Constants.KEY_IS_SIGNED_IN, true)
+                                                .putString(Constants.KEY_USERID, userId)
+                                                .putString(Constants.KEY_NAME, binding.inputName.getText().toString())
+                                                .putString(Constants.KEY_IMAGE_VERSION, imageVersion)
+                                                .apply();
+                                        User profile = new User();
+                                        profile.id = userId;
+                                        profile.name = binding.inputName.getText().toString();
+                                        profile.email = binding.inputEmail.getText().toString();
+                                        profile.imageVersion = imageVersion;
+                                        ProfileCache.getInstance(getApplicationContext()).put(profile);
 
                                         showToast("Registration successful!");
                                         Intent intent = new Intent(getApplicationContext(), MainActivity.class);
@@ -144,10 +167,10 @@ public class SignUpActivity extends AppCompatActivity {
      * as a JPEG before being encoded to ensure standardization of avatars
      * The image is converted to raw bytes and then encoded using Base64.encodeToString()
      * @param bitmap The avatar the user uploads
+     * @param previewWidth The width the avatar is scaled to
      * @return A string representing the Base 64 encoding of the original bitmap
      */
-    private String encodeImage(Bitmap bitmap){
-        int previewWidth = 150;
+    private String encodeImage(Bitmap bitmap, int previewWidth){
         int previewHeight = bitmap.getHeight()*previewWidth / bitmap.getWidth();
 
         Bitmap previewBitmap = Bitmap.createScaledBitmap(bitmap, previewWidth, previewHeight, false);
@@ -160,27 +183,50 @@ public class SignUpActivity extends AppCompatActivity {
         return Base64.encodeToString(bytes, Base64.DEFAULT);
     }
 
+    /**
+     * Scales and compresses the chosen avatar and its thumbnail on the image loader's background executor
+     * If another image is picked meanwhile, only the latest one is kept
+     * @param bitmap The avatar the user picked
+     */
+    private void encodeAvatar(Bitmap bitmap){
+        int pick = ++imagePicks;
+        encodeImage = null;
+        encodeThumbnail = null;
+        ImageLoader.getInstance(getApplicationContext()).getExecutor().execute(() -> {
+            String encodedImage = encodeImage(bitmap, Constants.AVATAR_WIDTH);
+            String encodedThumbnail = encodeImage(bitmap, Constants.AVATAR_THUMBNAIL_WIDTH);
+            runOnUiThread(() -> {
+                if (pick == imagePicks){
+                    encodeImage = encodedImage;
+                    encodeThumbnail = encodedThumbnail;
+                }
+            });
+        });
+    }
+
     /**
      * This function is used to call the system to access the Android device's gallery
      * in order to choose an image.
+     * The chosen image is decoded on a background thread, sampled down to the avatar size
+     * instead of the photo's full resolution, then scaled and encoded for upload there as well
      * After an image is chosen, it is displayed on the imageProfile View on the sign up page
      * and also removes the "add image" text in the middle of imageProfile
      */
     private final ActivityResultLauncher<Intent> pickImage = registerForActivityResult(
             new ActivityResultContracts.StartActivityForResult(),
             result ->{
-                if (result.getResultCode() == RESULT_OK){
+                if (result.getResultCode() == RESULT_OK && result.getData() != null){
                     Uri imageUri = result.getData().getData();
-                    try {
-                        InputStream inputStream = getContentResolver().openInputStream(imageUri);
-                        Bitmap bitmap = BitmapFactory.decodeStream(inputStream);
-
-                        binding.imageProfile.setImageBitmap(bitmap);
-                        binding.textAddImage.setVisibility(View.GONE);
-                        encodeImage = encodeImage(bitmap);
-                    } catch (FileNotFoundException e) {
-                        e.printStackTrace();
-                    }
+                    ImageLoader.getInstance(getApplicationContext()).loadUri(imageUri,
+                            Constants.AVATAR_WIDTH, Constants.AVATAR_WIDTH, bitmap -> {
+                                if (bitmap == null){
+                                    showToast("Unable to load image");
+                                    return;
+                                }
+                                binding.imageProfile.setImageBitmap(bitmap);
+                                binding.textAddImage.setVisibility(View.GONE);
+                                encodeAvatar(bitmap);
+                            });
                 }
             }
     );
@@ -193,7 +239,7 @@ public class SignUpActivity extends AppCompatActivity {
      */
     private Boolean isValidateSignUpDetails(){
         if (encodeImage == null){
-            showToast("Please choose an avatar");
+            showToast(imagePicks > 0 ? "Please wait for the avatar to load" : "Please choose an avatar");
             return false;
         } else if (binding.inputName.getText().toString().trim().isEmpty()){
             showToast("Please enter your name");
@@ -5,16 +5,22 @@ import android.os.Bundle;
 import android.view.View;
 import android.widget.Toast;
 
+import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
 
 import com.example.signin.adapters.UsersAdapter;
 import com.example.signin.databinding.ActivityUserBinding;
+import com.example.signin.firebase.UserRepository;
 import com.example.signin.listeners.UserListener;
 import com.example.signin.models.User;
 import com.example.signin.utilities.Constants;
+import com.example.signin.utilities.Metrics;
 import com.example.signin.utilities.PreferenceManager;
+import com.google.firebase.firestore.DocumentSnapshot;
 import com.google.firebase.firestore.FirebaseFirestore;
-import com.google.firebase.firestore.QueryDocumentSnapshot;
+import com.google.firebase.firestore.Query;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -22,6 +28,10 @@ import java.util.List;
 public class UserActivity extends AppCompatActivity implements UserListener {
     private ActivityUserBinding binding;
     private PreferenceManager preferenceManager;
+    private final List<User> users = new ArrayList<>();
+    private UsersAdapter usersAdapter;
+    private DocumentSnapshot lastUserSnapshot;
+    private boolean isLoadingUsers, allUsersLoaded;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -29,6 +39,8 @@ public class UserActivity extends AppCompatActivity implements UserListener {
         binding = ActivityUserBinding.inflate(getLayoutInflater());
         preferenceManager = new PreferenceManager(getApplicationContext());
         setContentView(binding.getRoot());
+        usersAdapter = new UsersAdapter(users, this);
+        binding.usersRecyclerView.setAdapter(usersAdapter);
         setListeners();
         getUsers();
 
@@ -36,37 +48,74 @@ public class UserActivity extends AppCompatActivity implements UserListener {
 
     private void setListeners(){
         binding.imageBack.setOnClickListener(v -> onBackPressed());
+        binding.usersRecyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+                LinearLayoutManager layoutManager = (LinearLayoutManager) recyclerView.getLayoutManager();
+                if (dy > 0 && layoutManager != null && layoutManager.findLastVisibleItemPosition()
+                        + Constants.USER_PREFETCH_DISTANCE >= usersAdapter.getItemCount()){
+                    getUsers();
+                }
+            }
+        });
     }
 
+    /**
+     * Loads the next page of the user directory, ordered by name
+     * Pages are read with a cursor on the last loaded user document and appended to the adapter,
+     * so the first page shows immediately and later pages are fetched as the user scrolls toward
+     * the end of the list, USER_PREFETCH_DISTANCE rows ahead of the viewport
+     */
     private void getUsers(){
-        loading(true);
+        if (isLoadingUsers || allUsersLoaded){
+            return;
+        }
+        isLoadingUsers = true;
+        if (users.isEmpty()){
+            loading(true);
+        }
         FirebaseFirestore database = FirebaseFirestore.getInstance();
-        database.collection(Constants.KEY_COLLECTION_USERS).get()
+        Query query = database.collection(Constants.KEY_COLLECTION_USERS)
+                .orderBy(Constants.KEY_NAME)
+                .limit(Constants.USER_PAGE_SIZE);
+        if (lastUserSnapshot != null){
+            query = query.startAfter(lastUserSnapshot);
+        }
+        long queryStart = Metrics.start();
+        query.get()
                 .addOnCompleteListener(task -> {
+                    Metrics.recordSince(Metrics.QUERY_USERS, queryStart);
+                    isLoadingUsers = false;
                     loading(false);
                     String currentUserID = preferenceManager.getString(Constants.KEY_USERID);
+                    UserRepository userRepository = UserRepository.getInstance();
                     if (task.isSuccessful() && task.getResult() != null){
-                        List<User> users = new ArrayList<>();
-                        for (QueryDocumentSnapshot queryDocumentSnapshot : task.getResult()){
-                            if (currentUserID.equals(queryDocumentSnapshot.getId())){
+                        List<DocumentSnapshot> documents = task.getResult().getDocuments();
+                        if (!task.getResult().getMetadata().isFromCache()){
+                            Metrics.increment(Metrics.READS_USERS, documents.size());
+                        }
+                        allUsersLoaded = documents.size() < Constants.USER_PAGE_SIZE;
+                        if (!documents.isEmpty()){
+                            lastUserSnapshot = documents.get(documents.size() - 1);
+                        }
+                        int start = users.size();
+                        for (DocumentSnapshot documentSnapshot : documents){
+                            if (currentUserID.equals(documentSnapshot.getId())){
                                 continue;
                             }
-                            User user = new User();
-                            user.name = queryDocumentSnapshot.getString(Constants.KEY_NAME);
-                            user.email = queryDocumentSnapshot.getString(Constants.KEY_EMAIL);
-                            user.image = queryDocumentSnapshot.getString(Constants.KEY_IMAGE);
-                            user.token = queryDocumentSnapshot.getString(Constants.KEY_FCM_TOKEN);
-                            user.id =  queryDocumentSnapshot.getId();
+                            User user = UserRepository.toUser(documentSnapshot);
+                            userRepository.put(user);
                             users.add(user);
                         }
+                        usersAdapter.notifyItemRangeInserted(start, users.size() - start);
                         if (users.size() > 0){
-                            UsersAdapter usersAdapter = new UsersAdapter(users, this);
-                            binding.usersRecyclerView.setAdapter(usersAdapter);
                             binding.usersRecyclerView.setVisibility(View.VISIBLE);
-                        } else {
+                        } else if (allUsersLoaded){
                             showErrorMessage();
+                        } else {
+                            getUsers();
                         }
-                    } else {
+                    } else if (users.isEmpty()){
                         showErrorMessage();
                     }
                 });
@@ -88,7 +137,7 @@ public class UserActivity extends AppCompatActivity implements UserListener {
     @Override
     public void onUserClicked(User user) {
         Intent intent = new Intent(getApplicationContext(), ChatActivity.class);
-        intent.putExtra(Constants.KEY_USER, user);
+        intent.putExtra(Constants.KEY_RECEIVER_ID, user.id);
         startActivity(intent);
         finish();
     }
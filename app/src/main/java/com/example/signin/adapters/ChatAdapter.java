@@ -1,30 +1,99 @@
 package com.example.signin.adapters;
 
-import android.graphics.Bitmap;
-import android.text.Layout;
 import android.view.LayoutInflater;
+import android.view.View;
 import android.view.ViewGroup;
+import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.AsyncListDiffer;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.example.signin.databinding.ItemContainerReceivedMessagesBinding;
 import com.example.signin.databinding.ItemContainerSentMessagesBinding;
 import com.example.signin.models.ChatMessage;
+import com.example.signin.models.User;
+import com.example.signin.utilities.ImageLoader;
+import com.example.signin.utilities.MessageTextCache;
+import com.example.signin.utilities.Metrics;
+
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 
 public class ChatAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>{
 
-    private Bitmap receiverProfileImage;
-    private final List<ChatMessage> chatMessages;
+    private User receiverUser;
+    private final AsyncListDiffer<ChatMessage> differ = new AsyncListDiffer<>(this, DIFF_CALLBACK);
+    private final Map<String, Long> stableIDs = new HashMap<>();
+    private final MessageTextCache messageTextCache = new MessageTextCache();
     private final String sendID;
 
     private static final int VIEW_TYPE_SENT = 1;
     private static final int VIEW_TYPE_RECEIVED = 2;
-    public ChatAdapter(List<ChatMessage> chatMessages, Bitmap receiverProfileImage, String sendID) {
-        this.receiverProfileImage = receiverProfileImage;
-        this.chatMessages = chatMessages;
+    private static final float PENDING_ALPHA = 0.6f;
+
+    /**
+     * Messages are identified by their Firestore document ID, a message only needs rebinding
+     * when its text, timestamp, day separator or pending state actually changed
+     * Public so the list update can be benchmarked on its own
+     */
+    public static final DiffUtil.ItemCallback<ChatMessage> DIFF_CALLBACK = new DiffUtil.ItemCallback<ChatMessage>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull ChatMessage oldItem, @NonNull ChatMessage newItem) {
+            return oldItem.id.equals(newItem.id);
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull ChatMessage oldItem, @NonNull ChatMessage newItem) {
+            return Objects.equals(oldItem.message, newItem.message)
+                    && oldItem.timestamp == newItem.timestamp
+                    && oldItem.showDayHeader == newItem.showDayHeader
+                    && oldItem.pending == newItem.pending;
+        }
+    };
+
+    public ChatAdapter(User receiverUser, String sendID) {
+        this.receiverUser = receiverUser;
         this.sendID = sendID;
+        setHasStableIds(true);
+    }
+
+    /**
+     * Replaces the receiver once their details are known, rebinding the rows that show them
+     * @param receiverUser The receiver of the conversation
+     */
+    public void setReceiverUser(User receiverUser) {
+        this.receiverUser = receiverUser;
+        notifyItemRangeChanged(0, getItemCount());
+    }
+
+    /**
+     * Hands a new snapshot of the conversation to the adapter
+     * The difference to the current list is computed on a background thread and dispatched as
+     * precise insert, remove and change notifications, so a new message costs a single row insert
+     * @param chatMessages A list that the caller will not modify afterwards
+     * @param commitCallback Run on the main thread once the list is displayed, may be null
+     */
+    public void submitList(List<ChatMessage> chatMessages, Runnable commitCallback) {
+        differ.submitList(chatMessages, commitCallback);
+    }
+
+    /**
+     * Measures the text of messages that are about to be shown, off the main thread
+     * @param chatMessages A batch of newly loaded messages
+     */
+    public void precomputeText(List<ChatMessage> chatMessages) {
+        messageTextCache.precompute(chatMessages);
+    }
+
+    /**
+     * Stops measuring text in the background, called when the adapter's screen is destroyed
+     */
+    public void release() {
+        messageTextCache.release();
     }
 
     @NonNull
@@ -32,59 +101,109 @@ public class ChatAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>{
     public RecyclerView.ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
         if (viewType == VIEW_TYPE_SENT){
             return new SentMessageViewHolder(ItemContainerSentMessagesBinding
-                    .inflate(LayoutInflater.from(parent.getContext()), parent, false));
+                    .inflate(LayoutInflater.from(parent.getContext()), parent, false), messageTextCache);
         } else {
             return new ReceiverMessageViewHolder(ItemContainerReceivedMessagesBinding
-                    .inflate(LayoutInflater.from(parent.getContext()), parent, false));
+                    .inflate(LayoutInflater.from(parent.getContext()), parent, false), messageTextCache);
         }
     }
 
     @Override
     public void onBindViewHolder(@NonNull RecyclerView.ViewHolder holder, int position) {
+        long start = Metrics.start();
         if (getItemViewType(position) == VIEW_TYPE_SENT){
-            ((SentMessageViewHolder)holder).setData(chatMessages.get(position));
+            ((SentMessageViewHolder)holder).setData(differ.getCurrentList().get(position));
         } else {
-            ((ReceiverMessageViewHolder)holder).setData(chatMessages.get(position), receiverProfileImage);
+            ((ReceiverMessageViewHolder)holder).setData(differ.getCurrentList().get(position), receiverUser);
+        }
+        Metrics.recordSince(Metrics.BIND_CHAT, start);
+    }
+
+    @Override
+    public void onViewRecycled(@NonNull RecyclerView.ViewHolder holder) {
+        if (holder instanceof ReceiverMessageViewHolder){
+            ImageLoader.getInstance(holder.itemView.getContext())
+                    .cancel(((ReceiverMessageViewHolder) holder).binding.imageProfile);
         }
     }
 
     @Override
     public int getItemCount() {
-        return chatMessages.size();
+        return differ.getCurrentList().size();
     }
 
-    public int getViewType(int position){
-        if (chatMessages.get(position).senderID.equals(sendID)){
+    /**
+     * Maps each document ID to a small sequential number, document IDs are strings and
+     * their hash codes are not guaranteed to be unique
+     */
+    @Override
+    public long getItemId(int position) {
+        String id = differ.getCurrentList().get(position).id;
+        Long stableID = stableIDs.get(id);
+        if (stableID == null){
+            stableID = (long) stableIDs.size();
+            stableIDs.put(id, stableID);
+        }
+        return stableID;
+    }
+
+    @Override
+    public int getItemViewType(int position){
+        if (differ.getCurrentList().get(position).senderID.equals(sendID)){
             return VIEW_TYPE_SENT;
         } else {
             return VIEW_TYPE_RECEIVED;
         }
     }
 
+    /**
+     * Shows the day separator above the first message of each day, the time is formatted here
+     * at bind time rather than when the message is received
+     */
+    private static void setDayHeader(TextView textDayHeader, ChatMessage chatMessage){
+        if (chatMessage.showDayHeader){
+            textDayHeader.setText(chatMessage.getFormattedDay());
+            textDayHeader.setVisibility(View.VISIBLE);
+        } else {
+            textDayHeader.setVisibility(View.GONE);
+        }
+    }
 
     static class SentMessageViewHolder extends RecyclerView.ViewHolder{
         private final ItemContainerSentMessagesBinding binding;
-        public SentMessageViewHolder(ItemContainerSentMessagesBinding itemContainerSentMessagesBinding) {
+        private final MessageTextCache messageTextCache;
+        private final boolean usesPrecomputedText;
+        public SentMessageViewHolder(ItemContainerSentMessagesBinding itemContainerSentMessagesBinding, MessageTextCache messageTextCache) {
             super(itemContainerSentMessagesBinding.getRoot());
             binding = itemContainerSentMessagesBinding;
+            this.messageTextCache = messageTextCache;
+            usesPrecomputedText = messageTextCache.attach(binding.textMessage);
         }
 
         void setData(ChatMessage chatMessage){
-            binding.textMessage.setText(chatMessage.message);
-            binding.textDateTimestamp.setText(chatMessage.dateTime);
+            messageTextCache.setText(binding.textMessage, chatMessage, usesPrecomputedText);
+            binding.textMessage.setAlpha(chatMessage.pending ? PENDING_ALPHA : 1f);
+            binding.textDateTimestamp.setText(chatMessage.getFormattedTime());
+            setDayHeader(binding.textDayHeader, chatMessage);
         }
     }
 
     static class ReceiverMessageViewHolder extends RecyclerView.ViewHolder{
         private final ItemContainerReceivedMessagesBinding binding;
-        public ReceiverMessageViewHolder(ItemContainerReceivedMessagesBinding itemContainerReceivedMessagesBinding) {
+        private final MessageTextCache messageTextCache;
+        private final boolean usesPrecomputedText;
+        public ReceiverMessageViewHolder(ItemContainerReceivedMessagesBinding itemContainerReceivedMessagesBinding, MessageTextCache messageTextCache) {
             super(itemContainerReceivedMessagesBinding.getRoot());
             binding = itemContainerReceivedMessagesBinding;
+            this.messageTextCache = messageTextCache;
+            usesPrecomputedText = messageTextCache.attach(binding.textMessage);
         }
-        void setData(ChatMessage chatMessage, Bitmap receiverProfileImage){
-            binding.textMessage.setText(chatMessage.message);
-            binding.textDateTimestamp.setText(chatMessage.dateTime);
-            binding.imageProfile.setImageBitmap(receiverProfileImage);
+        void setData(ChatMessage chatMessage, User receiverUser){
+            messageTextCache.setText(binding.textMessage, chatMessage, usesPrecomputedText);
+            binding.textDateTimestamp.setText(chatMessage.getFormattedTime());
+            setDayHeader(binding.textDayHeader, chatMessage);
+            ImageLoader.getInstance(binding.getRoot().getContext())
+                    .loadAvatar(binding.imageProfile, receiverUser);
         }
     }
 
@@ -0,0 +1,113 @@
+package com.example.signin.adapters;
+
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.AsyncListDiffer;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.example.signin.databinding.ItemContainerRecentConversationBinding;
+import com.example.signin.listeners.ConversationListener;
+import com.example.signin.models.RecentConversation;
+import com.example.signin.models.User;
+import com.example.signin.utilities.ImageLoader;
+import com.example.signin.utilities.Metrics;
+
+import java.util.List;
+import java.util.Objects;
+
+public class RecentConversationsAdapter extends RecyclerView.Adapter<RecentConversationsAdapter.ConversationViewHolder> {
+
+    private final AsyncListDiffer<RecentConversation> differ = new AsyncListDiffer<>(this, DIFF_CALLBACK);
+    private final ConversationListener conversationListener;
+
+    /**
+     * Conversations are identified by the counterpart's ID, a row only needs rebinding when
+     * its summary changed
+     */
+    private static final DiffUtil.ItemCallback<RecentConversation> DIFF_CALLBACK = new DiffUtil.ItemCallback<RecentConversation>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull RecentConversation oldItem, @NonNull RecentConversation newItem) {
+            return oldItem.counterpartID.equals(newItem.counterpartID);
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull RecentConversation oldItem, @NonNull RecentConversation newItem) {
+            return Objects.equals(oldItem.lastMessage, newItem.lastMessage)
+                    && Objects.equals(oldItem.timestamp, newItem.timestamp)
+                    && Objects.equals(oldItem.counterpartName, newItem.counterpartName)
+                    && Objects.equals(oldItem.counterpartImageVersion, newItem.counterpartImageVersion)
+                    && oldItem.unreadCount == newItem.unreadCount;
+        }
+    };
+
+    public RecentConversationsAdapter(ConversationListener conversationListener) {
+        this.conversationListener = conversationListener;
+    }
+
+    /**
+     * Hands the newest inbox snapshot to the adapter, the difference is computed in the background
+     * @param recentConversations A list that the caller will not modify afterwards
+     * @param commitCallback Run on the main thread once the list is displayed, may be null
+     */
+    public void submitList(List<RecentConversation> recentConversations, Runnable commitCallback) {
+        differ.submitList(recentConversations, commitCallback);
+    }
+
+    @NonNull
+    @Override
+    public ConversationViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        return new ConversationViewHolder(ItemContainerRecentConversationBinding
+                .inflate(LayoutInflater.from(parent.getContext()), parent, false));
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull ConversationViewHolder holder, int position) {
+        long start = Metrics.start();
+        holder.setData(differ.getCurrentList().get(position));
+        Metrics.recordSince(Metrics.BIND_CONVERSATIONS, start);
+    }
+
+    @Override
+    public void onViewRecycled(@NonNull ConversationViewHolder holder) {
+        ImageLoader.getInstance(holder.itemView.getContext()).cancel(holder.binding.imageProfile);
+    }
+
+    @Override
+    public int getItemCount() {
+        return differ.getCurrentList().size();
+    }
+
+    class ConversationViewHolder extends RecyclerView.ViewHolder {
+        ItemContainerRecentConversationBinding binding;
+
+        public ConversationViewHolder(ItemContainerRecentConversationBinding itemContainerRecentConversationBinding) {
+            super(itemContainerRecentConversationBinding.getRoot());
+            binding = itemContainerRecentConversationBinding;
+        }
+
+        void setData(RecentConversation recentConversation) {
+            binding.textName.setText(recentConversation.counterpartName);
+            binding.textRecentMessage.setText(recentConversation.lastMessage);
+            if (recentConversation.unreadCount > 0) {
+                binding.textUnreadCount.setText(String.valueOf(recentConversation.unreadCount));
+                binding.textUnreadCount.setVisibility(View.VISIBLE);
+            } else {
+                binding.textUnreadCount.setVisibility(View.GONE);
+            }
+            ImageLoader.getInstance(binding.getRoot().getContext()).loadAvatar(binding.imageProfile,
+                    recentConversation.counterpartID, recentConversation.counterpartImageVersion);
+
+            binding.getRoot().setOnClickListener(v -> {
+                User user = new User();
+                user.id = recentConversation.counterpartID;
+                user.name = recentConversation.counterpartName;
+                user.imageVersion = recentConversation.counterpartImageVersion;
+                conversationListener.onConversationClicked(user);
+            });
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.example.signin.adapters;
+
+import android.graphics.Typeface;
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+import android.text.style.StyleSpan;
+import android.view.LayoutInflater;
+import android.view.ViewGroup;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.AsyncListDiffer;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.example.signin.databinding.ItemContainerSearchResultBinding;
+import com.example.signin.firebase.UserRepository;
+import com.example.signin.listeners.SearchResultListener;
+import com.example.signin.models.MessageSearchResult;
+import com.example.signin.models.User;
+import com.example.signin.utilities.ImageLoader;
+
+import java.util.List;
+import java.util.Objects;
+
+public class SearchResultsAdapter extends RecyclerView.Adapter<SearchResultsAdapter.SearchResultViewHolder> {
+
+    private final AsyncListDiffer<MessageSearchResult> differ = new AsyncListDiffer<>(this, DIFF_CALLBACK);
+    private final SearchResultListener searchResultListener;
+    private final String userID;
+
+    /**
+     * Results are identified by their message, a row only needs rebinding when its snippet
+     * changed, which happens as the query is refined
+     */
+    private static final DiffUtil.ItemCallback<MessageSearchResult> DIFF_CALLBACK = new DiffUtil.ItemCallback<MessageSearchResult>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull MessageSearchResult oldItem, @NonNull MessageSearchResult newItem) {
+            return oldItem.chatMessage.id.equals(newItem.chatMessage.id);
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull MessageSearchResult oldItem, @NonNull MessageSearchResult newItem) {
+            return Objects.equals(oldItem.snippet, newItem.snippet);
+        }
+    };
+
+    public SearchResultsAdapter(String userID, SearchResultListener searchResultListener) {
+        this.userID = userID;
+        this.searchResultListener = searchResultListener;
+    }
+
+    /**
+     * Shows the results of the latest query, the difference is computed in the background
+     * @param results A list that the caller will not modify afterwards
+     */
+    public void submitList(List<MessageSearchResult> results) {
+        differ.submitList(results);
+    }
+
+    @NonNull
+    @Override
+    public SearchResultViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        return new SearchResultViewHolder(ItemContainerSearchResultBinding
+                .inflate(LayoutInflater.from(parent.getContext()), parent, false));
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull SearchResultViewHolder holder, int position) {
+        holder.setData(differ.getCurrentList().get(position));
+    }
+
+    @Override
+    public void onViewRecycled(@NonNull SearchResultViewHolder holder) {
+        ImageLoader.getInstance(holder.itemView.getContext()).cancel(holder.binding.imageProfile);
+    }
+
+    @Override
+    public int getItemCount() {
+        return differ.getCurrentList().size();
+    }
+
+    /**
+     * @param result A search result
+     * @return The ID of the other participant of the result's conversation
+     */
+    public String getCounterpartID(MessageSearchResult result) {
+        return userID.equals(result.chatMessage.senderID) ? result.chatMessage.receiverID : result.chatMessage.senderID;
+    }
+
+    /**
+     * Rebinds only the rows of conversations with a user whose details just arrived
+     */
+    private void notifyCounterpartChanged(String counterpartID) {
+        List<MessageSearchResult> results = differ.getCurrentList();
+        for (int i = 0; i < results.size(); i++) {
+            if (counterpartID.equals(getCounterpartID(results.get(i)))) {
+                notifyItemChanged(i);
+            }
+        }
+    }
+
+    /**
+     * Turns the snippet's match markers into bold spans
+     */
+    private static CharSequence highlight(String snippet) {
+        SpannableStringBuilder text = new SpannableStringBuilder();
+        int matchStart = -1;
+        for (int i = 0; i < snippet.length(); i++) {
+            char c = snippet.charAt(i);
+            if (c == MessageSearchResult.MATCH_START) {
+                matchStart = text.length();
+            } else if (c == MessageSearchResult.MATCH_END && matchStart >= 0) {
+                text.setSpan(new StyleSpan(Typeface.BOLD), matchStart, text.length(), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+                matchStart = -1;
+            } else {
+                text.append(c);
+            }
+        }
+        return text;
+    }
+
+    class SearchResultViewHolder extends RecyclerView.ViewHolder {
+        ItemContainerSearchResultBinding binding;
+
+        public SearchResultViewHolder(ItemContainerSearchResultBinding itemContainerSearchResultBinding) {
+            super(itemContainerSearchResultBinding.getRoot());
+            binding = itemContainerSearchResultBinding;
+        }
+
+        void setData(MessageSearchResult result) {
+            String counterpartID = getCounterpartID(result);
+            UserRepository userRepository = UserRepository.getInstance();
+            User counterpart = userRepository.get(counterpartID);
+            if (counterpart != null) {
+                binding.textName.setText(counterpart.name);
+                ImageLoader.getInstance(binding.getRoot().getContext()).loadAvatar(binding.imageProfile, counterpart);
+            } else {
+                binding.textName.setText(null);
+                ImageLoader.getInstance(binding.getRoot().getContext()).cancel(binding.imageProfile);
+                userRepository.load(counterpartID, user -> {
+                    if (user != null) {
+                        notifyCounterpartChanged(counterpartID);
+                    }
+                });
+            }
+            binding.textSnippet.setText(highlight(result.snippet));
+            binding.textDate.setText(result.chatMessage.getFormattedDay());
+
+            binding.getRoot().setOnClickListener(v -> searchResultListener.onSearchResultClicked(result));
+        }
+    }
+}
@@ -1,8 +1,5 @@
 package com.example.signin.adapters;
 
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.util.Base64;
 import android.view.LayoutInflater;
 import android.view.ViewGroup;
 
@@ -12,6 +9,8 @@ import androidx.recyclerview.widget.RecyclerView;
 import com.example.signin.databinding.ItemContainerUserBinding;
 import com.example.signin.listeners.UserListener;
 import com.example.signin.models.User;
+import com.example.signin.utilities.ImageLoader;
+import com.example.signin.utilities.Metrics;
 
 import java.util.List;
 
@@ -35,7 +34,14 @@ public class UsersAdapter extends RecyclerView.Adapter<UsersAdapter.UserViewHold
 
     @Override
     public void onBindViewHolder(@NonNull UserViewHolder holder, int position) {
+        long start = Metrics.start();
         holder.setUserData(users.get(position));
+        Metrics.recordSince(Metrics.BIND_USERS, start);
+    }
+
+    @Override
+    public void onViewRecycled(@NonNull UserViewHolder holder) {
+        ImageLoader.getInstance(holder.itemView.getContext()).cancel(holder.binding.imageProfile);
     }
 
     @Override
@@ -53,13 +59,10 @@ public class UsersAdapter extends RecyclerView.Adapter<UsersAdapter.UserViewHold
         void setUserData(User user){
             binding.textName.setText(user.name);
             binding.textEmail.setText(user.email);
-            binding.imageProfile.setImageBitmap(getUserImage(user.image));
+            ImageLoader.getInstance(binding.getRoot().getContext())
+                    .loadAvatar(binding.imageProfile, user);
 
             binding.getRoot().setOnClickListener(v -> userListener.onUserClicked(user));
         }
     }
-    private Bitmap getUserImage(String encodedImage){
-        byte [] bytes = Base64.decode(encodedImage, Base64.DEFAULT);
-        return BitmapFactory.decodeByteArray(bytes, 0, bytes.length);
-    }
 }
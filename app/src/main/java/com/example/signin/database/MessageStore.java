@@ -0,0 +1,531 @@
+package com.example.signin.database;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.text.TextUtils;
+
+import com.example.signin.models.ChatMessage;
+import com.example.signin.models.MessageSearchResult;
+import com.example.signin.models.User;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class MessageStore extends SQLiteOpenHelper {
+
+    private static final String DATABASE_NAME = "messages.db";
+    private static final int DATABASE_VERSION = 4;
+
+    private static final String TABLE_MESSAGES = "messages";
+    private static final String TABLE_SYNC_STATE = "sync_state";
+    private static final String TABLE_OUTBOX = "outbox";
+    private static final String TABLE_MESSAGES_FTS = "messages_fts";
+    private static final String COLUMN_ID = "id";
+    private static final String COLUMN_CONVERSATION_ID = "conversation_id";
+    private static final String COLUMN_SENDER_ID = "sender_id";
+    private static final String COLUMN_RECEIVER_ID = "receiver_id";
+    private static final String COLUMN_MESSAGE = "message";
+    private static final String COLUMN_TIMESTAMP = "timestamp";
+    private static final String COLUMN_WATERMARK = "watermark";
+    private static final String COLUMN_SENT = "sent";
+    private static final String COLUMN_RECEIVER_NAME = "receiver_name";
+    private static final String COLUMN_RECEIVER_IMAGE_VERSION = "receiver_image_version";
+
+    private static final String[] MESSAGE_COLUMNS = {
+            COLUMN_ID, COLUMN_SENDER_ID, COLUMN_RECEIVER_ID, COLUMN_MESSAGE, COLUMN_TIMESTAMP, COLUMN_CONVERSATION_ID
+    };
+
+    // Ranking only looks at the newest matches, which bounds a search on a very common term
+    private static final int SEARCH_CANDIDATE_LIMIT = 500;
+    private static final double BM25_K1 = 1.2;
+    private static final double BM25_B = 0.75;
+    private static final double RECENCY_HALF_LIFE_DAYS = 90;
+
+    private static MessageStore instance;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    /**
+     * Returns the process-wide message store, creating it on first use
+     * @param context Any context, only its application context is kept
+     * @return The shared MessageStore
+     */
+    public static synchronized MessageStore getInstance(Context context) {
+        if (instance == null) {
+            instance = new MessageStore(context.getApplicationContext(), DATABASE_NAME);
+        }
+        return instance;
+    }
+
+    /**
+     * @param context The application context
+     * @param name The database file, or null for an in-memory database as used by tests
+     */
+    MessageStore(Context context, String name) {
+        super(context, name, null, DATABASE_VERSION);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_MESSAGES + " ("
+                + COLUMN_ID + " TEXT PRIMARY KEY, "
+                + COLUMN_CONVERSATION_ID + " TEXT NOT NULL, "
+                + COLUMN_SENDER_ID + " TEXT, "
+                + COLUMN_RECEIVER_ID + " TEXT, "
+                + COLUMN_MESSAGE + " TEXT, "
+                + COLUMN_TIMESTAMP + " INTEGER NOT NULL)");
+        db.execSQL("CREATE INDEX index_messages_conversation_timestamp ON " + TABLE_MESSAGES
+                + " (" + COLUMN_CONVERSATION_ID + ", " + COLUMN_TIMESTAMP + ")");
+        db.execSQL("CREATE TABLE " + TABLE_SYNC_STATE + " ("
+                + COLUMN_CONVERSATION_ID + " TEXT PRIMARY KEY, "
+                + COLUMN_WATERMARK + " INTEGER NOT NULL)");
+        createOutbox(db);
+        createSearchIndex(db);
+    }
+
+    /**
+     * REPLACE only fires the delete trigger that keeps the search index in sync when
+     * recursive triggers are on
+     */
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        db.execSQL("PRAGMA recursive_triggers = ON");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion < 2) {
+            createOutbox(db);
+        } else if (oldVersion < 3) {
+            db.execSQL("ALTER TABLE " + TABLE_OUTBOX + " ADD COLUMN " + COLUMN_RECEIVER_NAME + " TEXT");
+            db.execSQL("ALTER TABLE " + TABLE_OUTBOX + " ADD COLUMN " + COLUMN_RECEIVER_IMAGE_VERSION + " TEXT");
+        }
+        if (oldVersion < 4) {
+            createSearchIndex(db);
+            db.execSQL("INSERT INTO " + TABLE_MESSAGES_FTS + "(" + TABLE_MESSAGES_FTS + ") VALUES ('rebuild')");
+        }
+    }
+
+    private static void createOutbox(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_OUTBOX + " ("
+                + COLUMN_ID + " TEXT PRIMARY KEY, "
+                + COLUMN_CONVERSATION_ID + " TEXT NOT NULL, "
+                + COLUMN_SENDER_ID + " TEXT, "
+                + COLUMN_RECEIVER_ID + " TEXT, "
+                + COLUMN_MESSAGE + " TEXT, "
+                + COLUMN_TIMESTAMP + " INTEGER NOT NULL, "
+                + COLUMN_SENT + " INTEGER NOT NULL DEFAULT 0, "
+                + COLUMN_RECEIVER_NAME + " TEXT, "
+                + COLUMN_RECEIVER_IMAGE_VERSION + " TEXT)");
+    }
+
+    /**
+     * Indexes the text of stored messages in an FTS4 table that reads its content from the
+     * messages table, so the text isn't stored twice. Triggers keep it in step with every
+     * insert, replace and delete, which makes the index incremental as messages are synced
+     */
+    private static void createSearchIndex(SQLiteDatabase db) {
+        db.execSQL("CREATE VIRTUAL TABLE " + TABLE_MESSAGES_FTS + " USING fts4("
+                + "content=\"" + TABLE_MESSAGES + "\", " + COLUMN_MESSAGE + ", tokenize=unicode61, prefix=\"2,3\")");
+        db.execSQL("CREATE TRIGGER messages_fts_before_update BEFORE UPDATE ON " + TABLE_MESSAGES + " BEGIN "
+                + "DELETE FROM " + TABLE_MESSAGES_FTS + " WHERE docid = old.rowid; END");
+        db.execSQL("CREATE TRIGGER messages_fts_before_delete BEFORE DELETE ON " + TABLE_MESSAGES + " BEGIN "
+                + "DELETE FROM " + TABLE_MESSAGES_FTS + " WHERE docid = old.rowid; END");
+        db.execSQL("CREATE TRIGGER messages_fts_after_update AFTER UPDATE ON " + TABLE_MESSAGES + " BEGIN "
+                + "INSERT INTO " + TABLE_MESSAGES_FTS + "(docid, " + COLUMN_MESSAGE + ") VALUES (new.rowid, new." + COLUMN_MESSAGE + "); END");
+        db.execSQL("CREATE TRIGGER messages_fts_after_insert AFTER INSERT ON " + TABLE_MESSAGES + " BEGIN "
+                + "INSERT INTO " + TABLE_MESSAGES_FTS + "(docid, " + COLUMN_MESSAGE + ") VALUES (new.rowid, new." + COLUMN_MESSAGE + "); END");
+    }
+
+    /**
+     * The single thread every read and write of the store should run on, which keeps the
+     * database off the main thread and serializes batches without extra locking
+     * @return The store's executor
+     */
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Used to read the newest messages of a conversation
+     * @param conversationID The conversation key
+     * @param limit The maximum number of messages
+     * @return The messages, oldest first
+     */
+    public List<ChatMessage> getLatestMessages(String conversationID, int limit) {
+        return queryMessages(COLUMN_CONVERSATION_ID + " = ?", new String[]{conversationID}, limit);
+    }
+
+    /**
+     * Used to read the page of messages preceding a point in a conversation
+     * @param conversationID The conversation key
+     * @param beforeTimestamp Only messages strictly older than this, in epoch milliseconds
+     * @param limit The maximum number of messages
+     * @return The messages, oldest first
+     */
+    public List<ChatMessage> getMessagesBefore(String conversationID, long beforeTimestamp, int limit) {
+        return queryMessages(COLUMN_CONVERSATION_ID + " = ? AND " + COLUMN_TIMESTAMP + " < ?",
+                new String[]{conversationID, String.valueOf(beforeTimestamp)}, limit);
+    }
+
+    /**
+     * Used to read the page of messages following a point in a conversation
+     * @param conversationID The conversation key
+     * @param afterTimestamp Only messages strictly newer than this, in epoch milliseconds
+     * @param limit The maximum number of messages
+     * @return The messages, oldest first
+     */
+    public List<ChatMessage> getMessagesAfter(String conversationID, long afterTimestamp, int limit) {
+        try (Cursor cursor = getReadableDatabase().query(TABLE_MESSAGES, MESSAGE_COLUMNS,
+                COLUMN_CONVERSATION_ID + " = ? AND " + COLUMN_TIMESTAMP + " > ?",
+                new String[]{conversationID, String.valueOf(afterTimestamp)}, null, null,
+                COLUMN_TIMESTAMP + " ASC", String.valueOf(limit))) {
+            return readMessages(cursor, false);
+        }
+    }
+
+    /**
+     * Used to open a conversation at a given message, for example a search hit
+     * @param conversationID The conversation key
+     * @param messageID The document ID of the message
+     * @param limit The maximum number of messages on each side of it
+     * @return Up to limit preceding messages, the message itself and up to limit newer ones,
+     * oldest first, or an empty list if the message isn't stored
+     */
+    public List<ChatMessage> getMessagesAround(String conversationID, String messageID, int limit) {
+        long timestamp;
+        try (Cursor cursor = getReadableDatabase().query(TABLE_MESSAGES, new String[]{COLUMN_TIMESTAMP},
+                COLUMN_ID + " = ? AND " + COLUMN_CONVERSATION_ID + " = ?", new String[]{messageID, conversationID},
+                null, null, null)) {
+            if (!cursor.moveToFirst()) {
+                return new ArrayList<>();
+            }
+            timestamp = cursor.getLong(0);
+        }
+        List<ChatMessage> chatMessages = getMessagesBefore(conversationID, timestamp, limit);
+        chatMessages.addAll(getMessagesAfter(conversationID, timestamp - 1, limit + 1));
+        return chatMessages;
+    }
+
+    /**
+     * Searches the text of every stored message
+     * Each word of the query matches words starting with it, and every word has to match. The
+     * newest SEARCH_CANDIDATE_LIMIT matches are ranked by BM25, computed from the FTS match
+     * statistics, weighed down with age so a recent hit beats an equally relevant old one
+     * @param query The text typed by the user
+     * @param limit The maximum number of results
+     * @return The results, best first, empty if the query has no words
+     */
+    public List<MessageSearchResult> searchMessages(String query, int limit) {
+        List<MessageSearchResult> results = new ArrayList<>();
+        String match = toMatchExpression(query);
+        if (match.isEmpty()) {
+            return results;
+        }
+        // The newest candidates are picked by message time first, so matchinfo and snippet are
+        // only computed for the rows that are scored
+        String sql = "SELECT m." + COLUMN_ID + ", m." + COLUMN_SENDER_ID + ", m." + COLUMN_RECEIVER_ID
+                + ", m." + COLUMN_MESSAGE + ", m." + COLUMN_TIMESTAMP + ", m." + COLUMN_CONVERSATION_ID
+                + ", matchinfo(" + TABLE_MESSAGES_FTS + ", 'pcnalx'), "
+                + "snippet(" + TABLE_MESSAGES_FTS + ", '" + MessageSearchResult.MATCH_START + "', '"
+                + MessageSearchResult.MATCH_END + "', '…', -1, 12) "
+                + "FROM " + TABLE_MESSAGES_FTS + " JOIN " + TABLE_MESSAGES + " AS m ON m.rowid = " + TABLE_MESSAGES_FTS + ".docid "
+                + "WHERE " + TABLE_MESSAGES_FTS + " MATCH ? AND " + TABLE_MESSAGES_FTS + ".docid IN ("
+                + "SELECT candidate.rowid FROM " + TABLE_MESSAGES_FTS + " JOIN " + TABLE_MESSAGES + " AS candidate "
+                + "ON candidate.rowid = " + TABLE_MESSAGES_FTS + ".docid WHERE " + TABLE_MESSAGES_FTS + " MATCH ? "
+                + "ORDER BY candidate." + COLUMN_TIMESTAMP + " DESC LIMIT " + SEARCH_CANDIDATE_LIMIT + ")";
+        long now = System.currentTimeMillis();
+        try (Cursor cursor = getReadableDatabase().rawQuery(sql, new String[]{match, match})) {
+            while (cursor.moveToNext()) {
+                ChatMessage chatMessage = new ChatMessage(cursor.getString(0), cursor.getString(5), cursor.getString(1),
+                        cursor.getString(2), cursor.getString(3), cursor.getLong(4), false);
+                double ageDays = Math.max(0, now - chatMessage.timestamp) / 86_400_000d;
+                double score = bm25(cursor.getBlob(6)) * Math.pow(0.5, ageDays / RECENCY_HALF_LIFE_DAYS);
+                results.add(new MessageSearchResult(chatMessage, cursor.getString(7), score));
+            }
+        }
+        Collections.sort(results, MessageSearchResult.BY_SCORE);
+        return results.size() > limit ? new ArrayList<>(results.subList(0, limit)) : results;
+    }
+
+    /**
+     * Turns typed text into an FTS query of quoted prefix terms, so characters with a meaning
+     * in the FTS syntax are matched literally
+     */
+    private static String toMatchExpression(String query) {
+        StringBuilder match = new StringBuilder();
+        for (String word : query.replace('"', ' ').trim().split("\\s+")) {
+            if (word.isEmpty()) {
+                continue;
+            }
+            if (match.length() > 0) {
+                match.append(' ');
+            }
+            match.append('"').append(word).append("*\"");
+        }
+        return match.toString();
+    }
+
+    /**
+     * Scores one row from its matchinfo 'pcnalx' blob, a sequence of native order 32 bit
+     * integers: the phrase and column counts, the row count, the average and the row's token
+     * count per column, then for each phrase and column the hits in the row, the hits in all
+     * rows and the number of rows with a hit
+     */
+    private static double bm25(byte[] matchInfo) {
+        ByteBuffer buffer = ByteBuffer.wrap(matchInfo).order(ByteOrder.nativeOrder());
+        int phraseCount = buffer.getInt(0);
+        int columnCount = buffer.getInt(4);
+        long rowCount = buffer.getInt(8) & 0xffffffffL;
+        double score = 0;
+        for (int column = 0; column < columnCount; column++) {
+            double averageLength = Math.max(1, buffer.getInt(4 * (3 + column)) & 0xffffffffL);
+            double length = buffer.getInt(4 * (3 + columnCount + column)) & 0xffffffffL;
+            for (int phrase = 0; phrase < phraseCount; phrase++) {
+                int x = 4 * (3 + 2 * columnCount + 3 * (phrase * columnCount + column));
+                double hits = buffer.getInt(x) & 0xffffffffL;
+                double rowsWithHit = buffer.getInt(x + 8) & 0xffffffffL;
+                double idf = Math.log((rowCount - rowsWithHit + 0.5) / (rowsWithHit + 0.5) + 1);
+                score += idf * hits * (BM25_K1 + 1)
+                        / (hits + BM25_K1 * (1 - BM25_B + BM25_B * length / averageLength));
+            }
+        }
+        return score;
+    }
+
+    /**
+     * Used to retrieve the sync watermark of a conversation
+     * Every message up to the watermark has been received from Firestore, so a sync only needs
+     * to request messages from this point on
+     * @param conversationID The conversation key
+     * @return The watermark in epoch milliseconds, or 0 if the conversation was never synced
+     */
+    public long getWatermark(String conversationID) {
+        try (Cursor cursor = getReadableDatabase().query(TABLE_SYNC_STATE, new String[]{COLUMN_WATERMARK},
+                COLUMN_CONVERSATION_ID + " = ?", new String[]{conversationID}, null, null, null)) {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        }
+    }
+
+    /**
+     * Writes a batch of messages in a single transaction, replacing any copy with the same ID
+     * @param conversationID The conversation key
+     * @param chatMessages The messages to store
+     * @param advanceWatermark Whether the batch came from a sync, in which case the conversation's
+     *                         watermark is raised to the newest message in the batch
+     */
+    public void insertMessages(String conversationID, List<ChatMessage> chatMessages, boolean advanceWatermark) {
+        if (chatMessages.isEmpty()) {
+            return;
+        }
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try (SQLiteStatement statement = db.compileStatement("INSERT OR REPLACE INTO " + TABLE_MESSAGES + " ("
+                + COLUMN_ID + ", " + COLUMN_CONVERSATION_ID + ", " + COLUMN_SENDER_ID + ", "
+                + COLUMN_RECEIVER_ID + ", " + COLUMN_MESSAGE + ", " + COLUMN_TIMESTAMP
+                + ") VALUES (?, ?, ?, ?, ?, ?)")) {
+            long newest = 0;
+            for (ChatMessage chatMessage : chatMessages) {
+                statement.clearBindings();
+                statement.bindString(1, chatMessage.id);
+                statement.bindString(2, conversationID);
+                bindNullable(statement, 3, chatMessage.senderID);
+                bindNullable(statement, 4, chatMessage.receiverID);
+                bindNullable(statement, 5, chatMessage.message);
+                statement.bindLong(6, chatMessage.timestamp);
+                statement.executeInsert();
+                newest = Math.max(newest, chatMessage.timestamp);
+            }
+            if (advanceWatermark) {
+                advanceWatermark(conversationID, newest);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Raises the sync watermark of a conversation, used once a gap below the live listener has
+     * been backfilled
+     * @param conversationID The conversation key
+     * @param timestamp The new watermark in epoch milliseconds, ignored unless it is newer
+     */
+    public void advanceWatermark(String conversationID, long timestamp) {
+        if (timestamp <= getWatermark(conversationID)) {
+            return;
+        }
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_CONVERSATION_ID, conversationID);
+        values.put(COLUMN_WATERMARK, timestamp);
+        getWritableDatabase().insertWithOnConflict(TABLE_SYNC_STATE, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    /**
+     * Queues a message that hasn't been written to Firestore yet
+     * @param chatMessage The message, with its client generated ID and conversation key
+     * @param receiver The receiver, whose name and avatar version go into the sender's inbox
+     */
+    public void insertOutboxMessage(ChatMessage chatMessage, User receiver) {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_ID, chatMessage.id);
+        values.put(COLUMN_CONVERSATION_ID, chatMessage.conversationID);
+        values.put(COLUMN_SENDER_ID, chatMessage.senderID);
+        values.put(COLUMN_RECEIVER_ID, chatMessage.receiverID);
+        values.put(COLUMN_MESSAGE, chatMessage.message);
+        values.put(COLUMN_TIMESTAMP, chatMessage.timestamp);
+        values.put(COLUMN_RECEIVER_NAME, receiver.name);
+        values.put(COLUMN_RECEIVER_IMAGE_VERSION, receiver.imageVersion);
+        getWritableDatabase().insertWithOnConflict(TABLE_OUTBOX, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    /**
+     * Used to read the oldest queued messages across all conversations
+     * @param limit The maximum number of messages
+     * @return The queued messages marked as pending, oldest first
+     */
+    public List<ChatMessage> getOutboxMessages(int limit) {
+        return queryOutbox(null, null, limit);
+    }
+
+    /**
+     * Used to read the queued messages of one conversation, so unsent messages survive a restart
+     * @param conversationID The conversation key
+     * @return The queued messages marked as pending, oldest first
+     */
+    public List<ChatMessage> getOutboxMessages(String conversationID) {
+        return queryOutbox(COLUMN_CONVERSATION_ID + " = ?", new String[]{conversationID}, -1);
+    }
+
+    /**
+     * Used to look up who queued messages were sent to, as they were when the message was sent
+     * @param ids The document IDs of the messages
+     * @return The receivers with their ID, name and avatar version, keyed by message ID
+     */
+    public Map<String, User> getOutboxReceivers(List<String> ids) {
+        Map<String, User> receivers = new HashMap<>();
+        String[] columns = {COLUMN_ID, COLUMN_RECEIVER_ID, COLUMN_RECEIVER_NAME, COLUMN_RECEIVER_IMAGE_VERSION};
+        String selection = COLUMN_ID + " IN (" + TextUtils.join(", ", Collections.nCopies(ids.size(), "?")) + ")";
+        try (Cursor cursor = getReadableDatabase().query(TABLE_OUTBOX, columns, selection,
+                ids.toArray(new String[0]), null, null, null)) {
+            while (cursor.moveToNext()) {
+                User receiver = new User();
+                receiver.id = cursor.getString(1);
+                receiver.name = cursor.getString(2);
+                receiver.imageVersion = cursor.getString(3);
+                receivers.put(cursor.getString(0), receiver);
+            }
+        }
+        return receivers;
+    }
+
+    /**
+     * Used to find queued messages whose write was already handed to Firestore, possibly by an
+     * earlier process that died before the write was confirmed
+     * @return The document IDs of the messages marked as sent
+     */
+    public Set<String> getSentOutboxIDs() {
+        Set<String> ids = new HashSet<>();
+        try (Cursor cursor = getReadableDatabase().query(TABLE_OUTBOX, new String[]{COLUMN_ID},
+                COLUMN_SENT + " = 1", null, null, null, null)) {
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getString(0));
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Marks queued messages as handed to Firestore, or back as unsent after a rejected write
+     * @param ids The document IDs of the messages
+     * @param sent Whether their write has been handed to Firestore
+     */
+    public void setOutboxSent(List<String> ids, boolean sent) {
+        SQLiteDatabase db = getWritableDatabase();
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_SENT, sent ? 1 : 0);
+        db.beginTransaction();
+        try {
+            for (String id : ids) {
+                db.update(TABLE_OUTBOX, values, COLUMN_ID + " = ?", new String[]{id});
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Removes messages from the outbox once Firestore has accepted them
+     * @param ids The document IDs of the written messages
+     */
+    public void deleteOutboxMessages(List<String> ids) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (String id : ids) {
+                db.delete(TABLE_OUTBOX, COLUMN_ID + " = ?", new String[]{id});
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Deletes every stored message, watermark and queued message, used when the signed in user changes
+     */
+    public void clear() {
+        SQLiteDatabase db = getWritableDatabase();
+        db.delete(TABLE_MESSAGES, null, null);
+        db.delete(TABLE_SYNC_STATE, null, null);
+        db.delete(TABLE_OUTBOX, null, null);
+    }
+
+    private List<ChatMessage> queryMessages(String selection, String[] selectionArgs, int limit) {
+        List<ChatMessage> chatMessages;
+        try (Cursor cursor = getReadableDatabase().query(TABLE_MESSAGES, MESSAGE_COLUMNS, selection,
+                selectionArgs, null, null, COLUMN_TIMESTAMP + " DESC", String.valueOf(limit))) {
+            chatMessages = readMessages(cursor, false);
+        }
+        Collections.reverse(chatMessages);
+        return chatMessages;
+    }
+
+    private List<ChatMessage> queryOutbox(String selection, String[] selectionArgs, int limit) {
+        try (Cursor cursor = getReadableDatabase().query(TABLE_OUTBOX, MESSAGE_COLUMNS, selection,
+                selectionArgs, null, null, COLUMN_TIMESTAMP + " ASC", limit > 0 ? String.valueOf(limit) : null)) {
+            return readMessages(cursor, true);
+        }
+    }
+
+    private static List<ChatMessage> readMessages(Cursor cursor, boolean pending) {
+        List<ChatMessage> chatMessages = new ArrayList<>();
+        while (cursor.moveToNext()) {
+            chatMessages.add(new ChatMessage(cursor.getString(0), cursor.getString(5), cursor.getString(1),
+                    cursor.getString(2), cursor.getString(3), cursor.getLong(4), pending));
+        }
+        return chatMessages;
+    }
+
+    private static void bindNullable(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.example.signin.firebase;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.lifecycle.DefaultLifecycleObserver;
+import androidx.lifecycle.LifecycleOwner;
+
+import com.example.signin.utilities.Metrics;
+import com.google.firebase.firestore.EventListener;
+import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QuerySnapshot;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Shares Firestore snapshot listeners between every screen that listens to the same query
+ * Each distinct query holds one Firestore listener no matter how many subscribers it has. When
+ * the last subscriber leaves, the listener is kept for RELEASE_DELAY_MS so quick back and forth
+ * navigation doesn't pay for a new initial snapshot
+ * A subscriber joining a query that is already attached is handed its latest snapshot, so
+ * subscribers should read their first snapshot with getDocuments() rather than as changes
+ */
+@MainThread
+public class ListenerRegistry {
+
+    private static final long RELEASE_DELAY_MS = 5000;
+
+    private static ListenerRegistry instance;
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Map<Query, SharedListener> sharedListeners = new HashMap<>();
+
+    private class SharedListener {
+        final Query query;
+        final List<EventListener<QuerySnapshot>> subscribers = new ArrayList<>();
+        final Runnable release = this::release;
+        ListenerRegistration registration;
+        QuerySnapshot latestSnapshot;
+
+        SharedListener(Query query) {
+            this.query = query;
+        }
+
+        void attach() {
+            registration = query.addSnapshotListener((value, error) -> {
+                if (value != null) {
+                    latestSnapshot = value;
+                }
+                if (error != null) {
+                    // Firestore ends a listener after an error, the next subscriber starts a new one
+                    sharedListeners.remove(query);
+                    mainHandler.removeCallbacks(release);
+                }
+                for (EventListener<QuerySnapshot> subscriber : new ArrayList<>(subscribers)) {
+                    subscriber.onEvent(value, error);
+                }
+            });
+        }
+
+        void release() {
+            if (sharedListeners.get(query) == this) {
+                sharedListeners.remove(query);
+            }
+            registration.remove();
+        }
+    }
+
+    public static synchronized ListenerRegistry getInstance() {
+        if (instance == null) {
+            instance = new ListenerRegistry();
+        }
+        return instance;
+    }
+
+    private ListenerRegistry() {
+        Metrics.registerGauge(Metrics.LISTENERS_ACTIVE, this::getActiveListenerCount);
+    }
+
+    /**
+     * Subscribes to a query, reusing the listener of an equal query if there is one
+     * @param query The query to listen to
+     * @param subscriber Called on the main thread with every snapshot
+     * @return The registration that unsubscribes, the Firestore listener is released once it
+     *     has had no subscribers for RELEASE_DELAY_MS
+     */
+    public ListenerRegistration subscribe(Query query, EventListener<QuerySnapshot> subscriber) {
+        SharedListener sharedListener = sharedListeners.get(query);
+        if (sharedListener == null) {
+            sharedListener = new SharedListener(query);
+            sharedListeners.put(query, sharedListener);
+            sharedListener.attach();
+        } else {
+            mainHandler.removeCallbacks(sharedListener.release);
+            QuerySnapshot latestSnapshot = sharedListener.latestSnapshot;
+            if (latestSnapshot != null) {
+                SharedListener replayed = sharedListener;
+                mainHandler.post(() -> {
+                    if (replayed.latestSnapshot == latestSnapshot && replayed.subscribers.contains(subscriber)) {
+                        subscriber.onEvent(latestSnapshot, null);
+                    }
+                });
+            }
+        }
+        sharedListener.subscribers.add(subscriber);
+        SharedListener subscribed = sharedListener;
+        return () -> unsubscribe(subscribed, subscriber);
+    }
+
+    /**
+     * Subscribes to a query for as long as a screen is started
+     * The subscription is dropped on every stop and made again on every start, and ends for
+     * good when the owner is destroyed
+     * @param owner The activity or fragment the subscription belongs to
+     * @param query The query to listen to
+     * @param subscriber Called on the main thread with every snapshot
+     */
+    public void subscribe(LifecycleOwner owner, Query query, EventListener<QuerySnapshot> subscriber) {
+        owner.getLifecycle().addObserver(new DefaultLifecycleObserver() {
+            private ListenerRegistration registration;
+
+            @Override
+            public void onStart(@NonNull LifecycleOwner owner) {
+                registration = subscribe(query, subscriber);
+            }
+
+            @Override
+            public void onStop(@NonNull LifecycleOwner owner) {
+                registration.remove();
+                registration = null;
+            }
+
+            @Override
+            public void onDestroy(@NonNull LifecycleOwner owner) {
+                owner.getLifecycle().removeObserver(this);
+            }
+        });
+    }
+
+    /**
+     * Used to tell whether a query still has a Firestore listener, possibly one waiting
+     * to be released
+     * @param query The query
+     * @return Whether the query is attached
+     */
+    public boolean isAttached(Query query) {
+        return sharedListeners.containsKey(query);
+    }
+
+    /**
+     * @return The number of Firestore listeners currently attached
+     */
+    public int getActiveListenerCount() {
+        return sharedListeners.size();
+    }
+
+    /**
+     * @return The number of subscribers across every attached listener
+     */
+    public int getSubscriberCount() {
+        int count = 0;
+        for (SharedListener sharedListener : sharedListeners.values()) {
+            count += sharedListener.subscribers.size();
+        }
+        return count;
+    }
+
+    private void unsubscribe(SharedListener sharedListener, EventListener<QuerySnapshot> subscriber) {
+        if (!sharedListener.subscribers.remove(subscriber) || !sharedListener.subscribers.isEmpty()) {
+            return;
+        }
+        if (sharedListeners.get(sharedListener.query) == sharedListener) {
+            mainHandler.postDelayed(sharedListener.release, RELEASE_DELAY_MS);
+        } else {
+            sharedListener.registration.remove();
+        }
+    }
+}
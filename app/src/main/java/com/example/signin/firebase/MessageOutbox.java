@@ -0,0 +1,172 @@
+package com.example.signin.firebase;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.example.signin.database.MessageStore;
+import com.example.signin.models.ChatMessage;
+import com.example.signin.models.User;
+import com.example.signin.utilities.Constants;
+import com.example.signin.utilities.PreferenceManager;
+import com.google.firebase.firestore.CollectionReference;
+import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.SetOptions;
+import com.google.firebase.firestore.WriteBatch;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class MessageOutbox {
+
+    private static final long FLUSH_DELAY_MILLIS = 100;
+    private static final int MAX_BATCH_SIZE = 100;
+
+    private static MessageOutbox instance;
+
+    private final MessageStore messageStore;
+    private final PreferenceManager preferenceManager;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Runnable flushRunnable = this::flush;
+    // Only touched on the store executor
+    private final OutboxQueue queue = new OutboxQueue(MAX_BATCH_SIZE);
+
+    /**
+     * Returns the process-wide outbox, creating it on first use
+     * @param context Any context, only its application context is kept
+     * @return The shared MessageOutbox
+     */
+    public static synchronized MessageOutbox getInstance(Context context) {
+        if (instance == null) {
+            instance = new MessageOutbox(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private MessageOutbox(Context context) {
+        messageStore = MessageStore.getInstance(context);
+        preferenceManager = new PreferenceManager(context);
+    }
+
+    /**
+     * Creates a message with a client generated document ID, ready to be shown as pending
+     * Because the ID is chosen before the write, sending it again is idempotent and the copy that
+     * later arrives through the snapshot listener replaces the pending one instead of duplicating it
+     * The client time only orders the pending message locally, Firestore assigns the synced timestamp
+     * @param conversationID The conversation key
+     * @param senderID The signed in user
+     * @param receiverID The other participant
+     * @param message The message text
+     * @return The pending message
+     */
+    public ChatMessage createMessage(String conversationID, String senderID, String receiverID, String message) {
+        return new ChatMessage(getChatCollection().document().getId(), conversationID, senderID,
+                receiverID, message, System.currentTimeMillis(), true);
+    }
+
+    /**
+     * Persists a message to the outbox and schedules a flush
+     * The flush is delayed slightly so that messages queued in quick succession are written
+     * to Firestore in one batch, along with a single inbox update per conversation
+     * @param chatMessage A message created by createMessage()
+     * @param receiver The receiver, whose name and avatar version go into the sender's inbox
+     */
+    public void send(ChatMessage chatMessage, User receiver) {
+        messageStore.getExecutor().execute(() -> {
+            messageStore.insertOutboxMessage(chatMessage, receiver);
+            mainHandler.post(() -> {
+                mainHandler.removeCallbacks(flushRunnable);
+                mainHandler.postDelayed(flushRunnable, FLUSH_DELAY_MILLIS);
+            });
+        });
+    }
+
+    /**
+     * Writes every queued message to Firestore in batches of up to MAX_BATCH_SIZE
+     * Firestore queues writes while offline and completes a commit only once the server has
+     * acknowledged it, so a batch stays in the outbox until then and is sent again after a
+     * restart. A commit only fails when the server rejects it, that batch is retried with
+     * exponential backoff. Batches are not held back waiting for the previous acknowledgement
+     */
+    public void flush() {
+        mainHandler.removeCallbacks(flushRunnable);
+        messageStore.getExecutor().execute(this::writeNextBatch);
+    }
+
+    /**
+     * Runs on the store executor, which also receives the commit results, so the queue's state
+     * and the outbox rows are only ever changed on that thread
+     * A batch is marked as sent before it is handed to Firestore. A row that is still marked
+     * when it is picked was handed over by a process that died before the acknowledgement,
+     * Firestore keeps that write and replays it, so the row is merged without its timestamp
+     * rather than rewritten, which would move the message to a new server time, and its inbox
+     * update, which was part of that write, is not repeated
+     */
+    private void writeNextBatch() {
+        List<ChatMessage> chatMessages = queue.takeBatch(
+                messageStore.getOutboxMessages(queue.getReadLimit()), SystemClock.elapsedRealtime());
+        if (chatMessages.isEmpty()) {
+            return;
+        }
+        Set<String> resumedIDs = messageStore.getSentOutboxIDs();
+        List<String> ids = new ArrayList<>();
+        for (ChatMessage chatMessage : chatMessages) {
+            ids.add(chatMessage.id);
+        }
+        Map<String, User> receivers = messageStore.getOutboxReceivers(ids);
+        messageStore.setOutboxSent(ids, true);
+        CollectionReference chatCollection = getChatCollection();
+        WriteBatch batch = FirebaseFirestore.getInstance().batch();
+        List<ChatMessage> newMessages = new ArrayList<>();
+        for (ChatMessage chatMessage : chatMessages) {
+            if (resumedIDs.contains(chatMessage.id)) {
+                batch.set(chatCollection.document(chatMessage.id), toDocument(chatMessage, false), SetOptions.merge());
+            } else {
+                batch.set(chatCollection.document(chatMessage.id), toDocument(chatMessage, true));
+                newMessages.add(chatMessage);
+            }
+        }
+        RecentConversations.recordMessages(batch, newMessages, preferenceManager.getString(Constants.KEY_NAME),
+                preferenceManager.getString(Constants.KEY_IMAGE_VERSION), receivers);
+        batch.commit().addOnCompleteListener(messageStore.getExecutor(), task -> {
+            if (task.isSuccessful()) {
+                queue.onCommitted(chatMessages);
+                messageStore.deleteOutboxMessages(ids);
+            } else {
+                long delay = queue.onFailed(chatMessages, SystemClock.elapsedRealtime());
+                messageStore.setOutboxSent(ids, false);
+                mainHandler.postDelayed(flushRunnable, delay);
+            }
+        });
+        if (chatMessages.size() == MAX_BATCH_SIZE) {
+            writeNextBatch();
+        }
+    }
+
+    private static CollectionReference getChatCollection() {
+        return FirebaseFirestore.getInstance().collection(Constants.KEY_COLLECTION_CHAT);
+    }
+
+    /**
+     * The timestamp is left to the server, a message flushed late after an offline period or a
+     * backoff still lands after every message the recipient has synced, so their watermark
+     * listener picks it up
+     * @param withTimestamp Whether to set the timestamp, false when merging over an earlier write
+     */
+    private static HashMap<String, Object> toDocument(ChatMessage chatMessage, boolean withTimestamp) {
+        HashMap<String, Object> message = new HashMap<>();
+        message.put(Constants.KEY_SENDER_ID, chatMessage.senderID);
+        message.put(Constants.KEY_RECEIVER_ID, chatMessage.receiverID);
+        message.put(Constants.KEY_CONVERSATION_ID, chatMessage.conversationID);
+        message.put(Constants.KEY_MESSAGE, chatMessage.message);
+        if (withTimestamp) {
+            message.put(Constants.KEY_TIMESTAMP, FieldValue.serverTimestamp());
+        }
+        return message;
+    }
+}
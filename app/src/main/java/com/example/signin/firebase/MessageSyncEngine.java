@@ -0,0 +1,394 @@
+package com.example.signin.firebase;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.example.signin.database.MessageStore;
+import com.example.signin.models.ChatMessage;
+import com.example.signin.utilities.Constants;
+import com.example.signin.utilities.Metrics;
+import com.google.firebase.firestore.DocumentChange;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QuerySnapshot;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+public class MessageSyncEngine {
+
+    // Timestamps come from each sender's clock and writes can commit out of order, so a message
+    // can become visible after a slightly newer one has already raised the watermark
+    private static final long WATERMARK_OVERLAP_MS = 60_000;
+
+    private final MessageStore messageStore;
+    private final String conversationID;
+    private final Listener listener;
+    private final Query conversationQuery;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private ListenerRegistration listenerRegistration;
+    private Query liveQuery;
+    private long liveSyncedThrough;
+    private boolean isStarted, isLoadingOlder, historyExhausted, isBackfilling, gapChecked;
+    // Only touched on the store executor, which stores the live snapshots in order
+    private long newestSynced;
+    private int listenGeneration;
+    private String anchorMessageID;
+    private boolean isShowingNewest = true, isLoadingNewer;
+    // The timestamp of the newest stored message displayed while the window is anchored
+    private long windowEnd;
+
+    public interface Listener {
+        /**
+         * Called on the main thread with a batch of messages, from the local store or from Firestore
+         * The same message may be delivered more than once, and every live snapshot is delivered
+         * even when it holds no new messages
+         * @param chatMessages The messages, in no particular order
+         */
+        void onMessagesLoaded(List<ChatMessage> chatMessages);
+    }
+
+    public MessageSyncEngine(Context context, String conversationID, Listener listener) {
+        this.messageStore = MessageStore.getInstance(context);
+        this.conversationID = conversationID;
+        this.listener = listener;
+        conversationQuery = FirebaseFirestore.getInstance()
+                .collection(Constants.KEY_COLLECTION_CHAT)
+                .whereEqualTo(Constants.KEY_CONVERSATION_ID, conversationID)
+                .orderBy(Constants.KEY_TIMESTAMP);
+    }
+
+    /**
+     * Makes the next start() render the conversation around a stored message instead of from
+     * its newest page, the message is looked up once
+     * @param messageID The document ID of the message to open the conversation at
+     */
+    public void setAnchor(String messageID) {
+        anchorMessageID = messageID;
+    }
+
+    /**
+     * Whether the displayed window reaches the newest messages, which is when the live listener
+     * is attached. A conversation opened at an older message gets there through
+     * loadNewerMessages() as the user scrolls down
+     * @return false while newer stored messages are still to be paged in
+     */
+    public boolean isShowingNewest() {
+        return isShowingNewest;
+    }
+
+    /**
+     * Renders the newest page of the conversation from the local store, then attaches a live
+     * listener for everything newer than the conversation's watermark
+     * A conversation that was never synced only listens to its newest page, older messages
+     * are backfilled by loadOlderMessages() as the user scrolls up
+     * With an anchor, MESSAGE_PAGE_SIZE messages on each side of it are rendered instead, and
+     * unless that already reaches the newest message the listener waits for loadNewerMessages()
+     * The engine may be started again after stop(), the store is re-read so messages that
+     * arrived by push in the meantime are shown
+     */
+    public void start() {
+        if (isStarted) {
+            return;
+        }
+        isStarted = true;
+        if (!isShowingNewest) {
+            // The displayed window is kept and keeps paging down from where it ends
+            return;
+        }
+        String anchor = anchorMessageID;
+        messageStore.getExecutor().execute(() -> {
+            List<ChatMessage> chatMessages = new ArrayList<>();
+            boolean reachesNewest = true;
+            if (anchor != null) {
+                chatMessages.addAll(messageStore.getMessagesAround(conversationID, anchor, Constants.MESSAGE_PAGE_SIZE));
+                reachesNewest = countAfter(chatMessages, anchor) < Constants.MESSAGE_PAGE_SIZE;
+            }
+            if (chatMessages.isEmpty()) {
+                chatMessages.addAll(messageStore.getLatestMessages(conversationID, Constants.MESSAGE_PAGE_SIZE));
+            }
+            long end = chatMessages.isEmpty() ? 0 : chatMessages.get(chatMessages.size() - 1).timestamp;
+            if (reachesNewest) {
+                chatMessages.addAll(messageStore.getOutboxMessages(conversationID));
+            }
+            long watermark = messageStore.getWatermark(conversationID);
+            boolean isShowingNewestPage = reachesNewest;
+            mainHandler.post(() -> {
+                if (!isStarted) {
+                    return;
+                }
+                anchorMessageID = null;
+                isShowingNewest = isShowingNewestPage;
+                windowEnd = end;
+                if (!chatMessages.isEmpty()) {
+                    listener.onMessagesLoaded(chatMessages);
+                }
+                if (isShowingNewest) {
+                    listen(watermark);
+                }
+            });
+        });
+    }
+
+    /**
+     * Loads the page of stored messages following the displayed window, for a conversation
+     * opened at an older message. Once the store has nothing newer the outbox is added and the
+     * live listener is attached, which fetches whatever the store is missing
+     */
+    public void loadNewerMessages() {
+        if (isShowingNewest || isLoadingNewer || !isStarted) {
+            return;
+        }
+        isLoadingNewer = true;
+        long after = windowEnd;
+        messageStore.getExecutor().execute(() -> {
+            List<ChatMessage> newer = messageStore.getMessagesAfter(conversationID, after, Constants.MESSAGE_PAGE_SIZE);
+            long end = newer.isEmpty() ? after : newer.get(newer.size() - 1).timestamp;
+            boolean reachesNewest = newer.size() < Constants.MESSAGE_PAGE_SIZE;
+            if (reachesNewest) {
+                newer.addAll(messageStore.getOutboxMessages(conversationID));
+            }
+            long watermark = messageStore.getWatermark(conversationID);
+            mainHandler.post(() -> {
+                isLoadingNewer = false;
+                if (!isStarted) {
+                    return;
+                }
+                windowEnd = end;
+                if (!newer.isEmpty()) {
+                    listener.onMessagesLoaded(newer);
+                }
+                if (reachesNewest) {
+                    isShowingNewest = true;
+                    listen(watermark);
+                }
+            });
+        });
+    }
+
+    private static int countAfter(List<ChatMessage> chatMessages, String messageID) {
+        for (int i = 0; i < chatMessages.size(); i++) {
+            if (chatMessages.get(i).id.equals(messageID)) {
+                return chatMessages.size() - 1 - i;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Detaches the live listener, pending store writes still complete
+     */
+    public void stop() {
+        isStarted = false;
+        if (listenerRegistration != null) {
+            listenerRegistration.remove();
+            listenerRegistration = null;
+        }
+        isBackfilling = false;
+        gapChecked = false;
+        listenGeneration++;
+    }
+
+    /**
+     * Attaches the live listener to the newest page of the conversation
+     * With a watermark the listener starts WATERMARK_OVERLAP_MS before it, messages that were
+     * already stored arrive again and are de-duplicated by ID in the store and in the merge
+     * If the first server snapshot is a full page that doesn't reach back to that point, the
+     * messages in between are backfilled page by page, and the watermark only advances once
+     * the store holds everything below the live page
+     * The query is subscribed through the ListenerRegistry. A restart within the registry's
+     * release delay reuses the previous query, so its Firestore listener is picked up again
+     * instead of being replaced
+     * @param watermark The newest timestamp already in the local store
+     */
+    private void listen(long watermark) {
+        if (listenerRegistration != null) {
+            return;
+        }
+        ListenerRegistry listenerRegistry = ListenerRegistry.getInstance();
+        if (liveQuery == null || !listenerRegistry.isAttached(liveQuery)) {
+            liveSyncedThrough = Math.max(0, watermark - WATERMARK_OVERLAP_MS);
+            Query query = conversationQuery;
+            if (watermark != 0) {
+                query = query.whereGreaterThanOrEqualTo(Constants.KEY_TIMESTAMP, new Date(liveSyncedThrough));
+            }
+            liveQuery = query.limitToLast(Constants.MESSAGE_PAGE_SIZE);
+        }
+        long syncedThrough = liveSyncedThrough;
+        boolean[] isFirstSnapshot = {true};
+        listenerRegistration = listenerRegistry.subscribe(liveQuery, (value, error) -> {
+            if (error != null || value == null) {
+                return;
+            }
+            if (!value.getMetadata().isFromCache()) {
+                Metrics.increment(Metrics.READS_MESSAGES, value.getDocumentChanges().size());
+            }
+            if (syncedThrough == 0 && value.size() < Constants.MESSAGE_PAGE_SIZE) {
+                historyExhausted = true;
+            }
+            List<DocumentSnapshot> documents = new ArrayList<>();
+            if (isFirstSnapshot[0]) {
+                // May be a replayed snapshot whose changes were already seen by another subscriber
+                documents.addAll(value.getDocuments());
+                isFirstSnapshot[0] = false;
+            } else {
+                for (DocumentChange documentChange : value.getDocumentChanges()) {
+                    if (documentChange.getType() != DocumentChange.Type.REMOVED) {
+                        documents.add(documentChange.getDocument());
+                    }
+                }
+            }
+            boolean fromServer = !value.getMetadata().isFromCache();
+            if (fromServer && !gapChecked) {
+                gapChecked = true;
+                if (syncedThrough != 0 && value.size() == Constants.MESSAGE_PAGE_SIZE) {
+                    DocumentSnapshot oldestLive = value.getDocuments().get(0);
+                    Date oldestTimestamp = oldestLive.getDate(Constants.KEY_TIMESTAMP);
+                    if (oldestTimestamp != null && oldestTimestamp.getTime() > syncedThrough) {
+                        isBackfilling = true;
+                        backfill(listenGeneration, conversationQuery
+                                .whereGreaterThanOrEqualTo(Constants.KEY_TIMESTAMP, new Date(syncedThrough))
+                                .whereLessThan(Constants.KEY_TIMESTAMP, oldestTimestamp), null);
+                    }
+                }
+            }
+            boolean advanceWatermark = fromServer && !isBackfilling;
+            // Messages are built and stored off the main thread, the store executor keeps batches in order
+            messageStore.getExecutor().execute(() -> {
+                List<ChatMessage> changed = new ArrayList<>(documents.size());
+                List<ChatMessage> synced = new ArrayList<>(documents.size());
+                for (DocumentSnapshot documentSnapshot : documents) {
+                    ChatMessage chatMessage = toChatMessage(documentSnapshot);
+                    changed.add(chatMessage);
+                    if (!chatMessage.pending) {
+                        synced.add(chatMessage);
+                        newestSynced = Math.max(newestSynced, chatMessage.timestamp);
+                    }
+                }
+                if (!synced.isEmpty()) {
+                    messageStore.insertMessages(conversationID, synced, advanceWatermark);
+                }
+                mainHandler.post(() -> listener.onMessagesLoaded(changed));
+            });
+        });
+    }
+
+    /**
+     * Fetches the messages missed between the old watermark and the live page, one page at a
+     * time, then advances the watermark to the newest message the listener has stored
+     * A failed page or a stopped engine leaves the watermark where it was, so the next start
+     * backfills the gap again
+     * @param generation The listenGeneration the backfill belongs to, it ends once the engine stops
+     * @param gapQuery The part of the conversation between the watermark and the live page
+     * @param after The last document of the previous page, or null for the first page
+     */
+    private void backfill(int generation, Query gapQuery, DocumentSnapshot after) {
+        Query pageQuery = gapQuery.limit(Constants.MESSAGE_PAGE_SIZE);
+        if (after != null) {
+            pageQuery = pageQuery.startAfter(after);
+        }
+        pageQuery.get().addOnCompleteListener(task -> {
+            if (generation != listenGeneration || !task.isSuccessful() || task.getResult() == null) {
+                return;
+            }
+            List<DocumentSnapshot> documents = task.getResult().getDocuments();
+            Metrics.increment(Metrics.READS_MESSAGES, documents.size());
+            boolean isLastPage = documents.size() < Constants.MESSAGE_PAGE_SIZE;
+            messageStore.getExecutor().execute(() -> {
+                List<ChatMessage> page = new ArrayList<>(documents.size());
+                for (DocumentSnapshot documentSnapshot : documents) {
+                    page.add(toChatMessage(documentSnapshot));
+                }
+                if (!page.isEmpty()) {
+                    messageStore.insertMessages(conversationID, page, false);
+                    mainHandler.post(() -> listener.onMessagesLoaded(page));
+                }
+                if (isLastPage) {
+                    messageStore.advanceWatermark(conversationID, newestSynced);
+                }
+            });
+            if (isLastPage) {
+                isBackfilling = false;
+            } else {
+                backfill(generation, gapQuery, documents.get(documents.size() - 1));
+            }
+        });
+    }
+
+    /**
+     * Loads the page of messages preceding a point in the conversation
+     * The local store is read first, and only the part of the page it can't provide is
+     * requested from Firestore. Fetched messages are stored for the next time
+     * @param beforeTimestamp The timestamp of the oldest displayed message, in epoch milliseconds
+     */
+    public void loadOlderMessages(long beforeTimestamp) {
+        if (isLoadingOlder || historyExhausted) {
+            return;
+        }
+        isLoadingOlder = true;
+        messageStore.getExecutor().execute(() -> {
+            List<ChatMessage> local = messageStore.getMessagesBefore(conversationID, beforeTimestamp, Constants.MESSAGE_PAGE_SIZE);
+            mainHandler.post(() -> {
+                if (!local.isEmpty()) {
+                    listener.onMessagesLoaded(local);
+                }
+                if (local.size() == Constants.MESSAGE_PAGE_SIZE) {
+                    isLoadingOlder = false;
+                    return;
+                }
+                long remoteBefore = local.isEmpty() ? beforeTimestamp : local.get(0).timestamp;
+                int remaining = Constants.MESSAGE_PAGE_SIZE - local.size();
+                conversationQuery.whereLessThan(Constants.KEY_TIMESTAMP, new Date(remoteBefore))
+                        .limitToLast(remaining)
+                        .get()
+                        .addOnCompleteListener(messageStore.getExecutor(), task -> {
+                            if (!task.isSuccessful() || task.getResult() == null) {
+                                mainHandler.post(() -> isLoadingOlder = false);
+                                return;
+                            }
+                            QuerySnapshot value = task.getResult();
+                            if (!value.getMetadata().isFromCache()) {
+                                Metrics.increment(Metrics.READS_MESSAGES, value.size());
+                            }
+                            List<ChatMessage> remote = new ArrayList<>(value.size());
+                            for (DocumentSnapshot documentSnapshot : value.getDocuments()) {
+                                remote.add(toChatMessage(documentSnapshot));
+                            }
+                            if (!remote.isEmpty()) {
+                                messageStore.insertMessages(conversationID, remote, false);
+                            }
+                            boolean exhausted = value.size() < remaining;
+                            mainHandler.post(() -> {
+                                isLoadingOlder = false;
+                                historyExhausted = exhausted;
+                                if (!remote.isEmpty()) {
+                                    listener.onMessagesLoaded(remote);
+                                }
+                            });
+                        });
+            });
+        });
+    }
+
+    /**
+     * Builds the message of a document, called on the store executor
+     * The outbox writes the timestamp as FieldValue.serverTimestamp(). A write of this device
+     * that Firestore hasn't confirmed yet has no value for it, so the local estimate is used
+     * until the confirmed copy replaces the message
+     */
+    private static ChatMessage toChatMessage(DocumentSnapshot documentSnapshot) {
+        Date date = documentSnapshot.getDate(Constants.KEY_TIMESTAMP, DocumentSnapshot.ServerTimestampBehavior.ESTIMATE);
+        return new ChatMessage(documentSnapshot.getId(),
+                documentSnapshot.getString(Constants.KEY_CONVERSATION_ID),
+                documentSnapshot.getString(Constants.KEY_SENDER_ID),
+                documentSnapshot.getString(Constants.KEY_RECEIVER_ID),
+                documentSnapshot.getString(Constants.KEY_MESSAGE),
+                date != null ? date.getTime() : System.currentTimeMillis(),
+                documentSnapshot.getMetadata().hasPendingWrites());
+    }
+}
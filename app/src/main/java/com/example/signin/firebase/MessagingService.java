@@ -4,9 +4,14 @@ import android.util.Log;
 
 import androidx.annotation.NonNull;
 
+import com.example.signin.models.ChatMessage;
+import com.example.signin.utilities.Constants;
+import com.example.signin.utilities.PreferenceManager;
 import com.google.firebase.messaging.FirebaseMessagingService;
 import com.google.firebase.messaging.RemoteMessage;
 
+import java.util.Map;
+
 public class MessagingService extends FirebaseMessagingService {
 
     /**
@@ -21,12 +26,54 @@ public class MessagingService extends FirebaseMessagingService {
     }
 
     /**
-     * Function used to log messages sent by the Firebase Cloud Messaging service
+     * Function used to handle messages sent by the Firebase Cloud Messaging service
+     * A data message carrying a chat message is handed to the NotificationQueue, which writes it
+     * into the local message store, so the chat shows it without fetching it when it is next
+     * opened, and coalesces bursts into one notification per conversation
      * @param message Remote message that has been received.
      */
     @Override
     public void onMessageReceived(@NonNull RemoteMessage message) {
         super.onMessageReceived(message);
-        Log.d("FCM", "Message " + message.getNotification().getBody());
+        if (message.getNotification() != null) {
+            Log.d("FCM", "Message " + message.getNotification().getBody());
+        }
+        ChatMessage chatMessage = toChatMessage(message.getData());
+        if (chatMessage == null) {
+            return;
+        }
+        PreferenceManager preferenceManager = new PreferenceManager(getApplicationContext());
+        if (!chatMessage.receiverID.equals(preferenceManager.getString(Constants.KEY_USERID))) {
+            return;
+        }
+        NotificationQueue.getInstance(getApplicationContext()).enqueue(chatMessage,
+                message.getData().get(Constants.KEY_NAME),
+                message.getData().get(Constants.KEY_IMAGE_VERSION));
+    }
+
+    /**
+     * Used to read a chat message out of a data message's payload
+     * The watermark is not advanced for these, since a push says nothing about the messages
+     * sent before it
+     * @param data The payload, with the same keys as a chat document and the timestamp in
+     *     epoch milliseconds, plus the sender's name and avatar version
+     * @return The chat message, or null if the payload doesn't carry a complete one
+     */
+    private static ChatMessage toChatMessage(Map<String, String> data) {
+        String id = data.get(Constants.KEY_MESSAGE_ID);
+        String conversationID = data.get(Constants.KEY_CONVERSATION_ID);
+        String senderID = data.get(Constants.KEY_SENDER_ID);
+        String receiverID = data.get(Constants.KEY_RECEIVER_ID);
+        String text = data.get(Constants.KEY_MESSAGE);
+        String timestamp = data.get(Constants.KEY_TIMESTAMP);
+        if (id == null || conversationID == null || senderID == null || receiverID == null
+                || text == null || timestamp == null) {
+            return null;
+        }
+        try {
+            return new ChatMessage(id, conversationID, senderID, receiverID, text, Long.parseLong(timestamp), false);
+        } catch (NumberFormatException e) {
+            return null;
+        }
     }
 }
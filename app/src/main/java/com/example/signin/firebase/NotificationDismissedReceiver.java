@@ -0,0 +1,22 @@
+package com.example.signin.firebase;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+
+import com.example.signin.utilities.Constants;
+
+/**
+ * Receives the delete intent of a conversation's notification, so NotificationQueue can drop
+ * what it kept for the notification once the user has swiped it away
+ */
+public class NotificationDismissedReceiver extends BroadcastReceiver {
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        String conversationID = intent.getStringExtra(Constants.KEY_CONVERSATION_ID);
+        if (conversationID != null) {
+            NotificationQueue.getInstance(context).dismiss(conversationID);
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.example.signin.firebase;
+
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+
+import androidx.core.app.NotificationChannelCompat;
+import androidx.core.app.NotificationCompat;
+import androidx.core.app.NotificationManagerCompat;
+
+import com.example.signin.R;
+import com.example.signin.activities.ChatActivity;
+import com.example.signin.database.MessageStore;
+import com.example.signin.models.ChatMessage;
+import com.example.signin.utilities.Constants;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Background queue for pushed chat messages
+ * Messages of a conversation that arrive within COALESCE_WINDOW_MS of the first one are handled
+ * together: they are written to the local store in one transaction and produce a single update
+ * of that conversation's notification
+ * A conversation is only kept while its window is open or its notification is shown, opening
+ * the chat or dismissing the notification drops it
+ */
+public class NotificationQueue {
+
+    private static final String CHANNEL_ID = "messages";
+    private static final long COALESCE_WINDOW_MS = 1500;
+
+    private static NotificationQueue instance;
+
+    private final Context context;
+    private final Handler handler;
+    private final MessageStore messageStore;
+    private final NotificationManagerCompat notificationManager;
+    // Only touched on the queue's thread
+    private final Map<String, PendingNotification> pendingConversations = new HashMap<>();
+    private volatile String visibleConversationID;
+
+    public static synchronized NotificationQueue getInstance(Context context) {
+        if (instance == null) {
+            instance = new NotificationQueue(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private NotificationQueue(Context context) {
+        this.context = context;
+        HandlerThread handlerThread = new HandlerThread("NotificationQueue", Process.THREAD_PRIORITY_BACKGROUND);
+        handlerThread.start();
+        handler = new Handler(handlerThread.getLooper());
+        messageStore = MessageStore.getInstance(context);
+        notificationManager = NotificationManagerCompat.from(context);
+        notificationManager.createNotificationChannel(new NotificationChannelCompat.Builder(
+                CHANNEL_ID, NotificationManagerCompat.IMPORTANCE_HIGH)
+                .setName(context.getString(R.string.notification_channel_messages))
+                .build());
+    }
+
+    /**
+     * Queues a pushed message, the first message of a burst starts the conversation's window
+     * @param chatMessage The pushed message
+     * @param senderName The sender's display name, may be null
+     * @param senderImageVersion The sender's avatar version, may be null
+     */
+    public void enqueue(ChatMessage chatMessage, String senderName, String senderImageVersion) {
+        handler.post(() -> {
+            PendingNotification pending = pendingConversations.get(chatMessage.conversationID);
+            if (pending == null) {
+                pending = new PendingNotification();
+                pendingConversations.put(chatMessage.conversationID, pending);
+            }
+            if (pending.add(chatMessage, senderName, senderImageVersion)) {
+                handler.postDelayed(() -> flush(chatMessage.conversationID), COALESCE_WINDOW_MS);
+            }
+        });
+    }
+
+    /**
+     * Marks a conversation as being on screen, so it gets no notifications and its existing
+     * one is removed
+     * @param conversationID The conversation shown, or null when no chat is shown
+     */
+    public void setVisibleConversation(String conversationID) {
+        visibleConversationID = conversationID;
+        if (conversationID == null) {
+            return;
+        }
+        handler.post(() -> clearUnread(conversationID));
+    }
+
+    /**
+     * Called when the user dismisses a conversation's notification
+     * @param conversationID The conversation of the dismissed notification
+     */
+    void dismiss(String conversationID) {
+        handler.post(() -> clearUnread(conversationID));
+    }
+
+    private void clearUnread(String conversationID) {
+        PendingNotification pending = pendingConversations.get(conversationID);
+        if (pending != null) {
+            pending.clearUnread();
+            if (pending.isIdle()) {
+                pendingConversations.remove(conversationID);
+            }
+        }
+        notificationManager.cancel(conversationID, 0);
+    }
+
+    private void flush(String conversationID) {
+        PendingNotification pending = pendingConversations.get(conversationID);
+        if (pending == null) {
+            return;
+        }
+        boolean isVisible = conversationID.equals(visibleConversationID);
+        List<ChatMessage> burst = pending.takeBurst(!isVisible);
+        messageStore.getExecutor().execute(() -> messageStore.insertMessages(conversationID, burst, false));
+        if (pending.isIdle()) {
+            pendingConversations.remove(conversationID);
+        } else if (!isVisible) {
+            notify(conversationID, pending);
+        }
+    }
+
+    private void notify(String conversationID, PendingNotification pending) {
+        if (!notificationManager.areNotificationsEnabled()) {
+            return;
+        }
+        String title = pending.getSenderName() != null ? pending.getSenderName() : context.getString(R.string.app_name);
+        NotificationCompat.InboxStyle style = new NotificationCompat.InboxStyle()
+                .setBigContentTitle(title);
+        List<String> lines = pending.getLines();
+        for (String line : lines) {
+            style.addLine(line);
+        }
+        int unreadCount = pending.getUnreadCount();
+        if (unreadCount > lines.size()) {
+            style.setSummaryText(context.getResources().getQuantityString(
+                    R.plurals.notification_new_messages, unreadCount, unreadCount));
+        }
+
+        // The sender's name and avatar version let the chat open without fetching their profile
+        Intent intent = new Intent(context, ChatActivity.class);
+        intent.putExtra(Constants.KEY_RECEIVER_ID, pending.getSenderID());
+        if (pending.getSenderName() != null) {
+            intent.putExtra(Constants.KEY_NAME, pending.getSenderName());
+            intent.putExtra(Constants.KEY_IMAGE_VERSION, pending.getSenderImageVersion());
+        }
+        PendingIntent contentIntent = PendingIntent.getActivity(context, conversationID.hashCode(), intent,
+                PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
+        Intent dismissIntent = new Intent(context, NotificationDismissedReceiver.class);
+        dismissIntent.putExtra(Constants.KEY_CONVERSATION_ID, conversationID);
+        PendingIntent deleteIntent = PendingIntent.getBroadcast(context, conversationID.hashCode(), dismissIntent,
+                PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
+
+        NotificationCompat.Builder builder = new NotificationCompat.Builder(context, CHANNEL_ID)
+                .setSmallIcon(R.drawable.ic_send)
+                .setContentTitle(title)
+                .setContentText(lines.get(lines.size() - 1))
+                .setStyle(style)
+                .setNumber(unreadCount)
+                .setCategory(NotificationCompat.CATEGORY_MESSAGE)
+                .setPriority(NotificationCompat.PRIORITY_HIGH)
+                .setAutoCancel(true)
+                .setContentIntent(contentIntent)
+                .setDeleteIntent(deleteIntent);
+        try {
+            notificationManager.notify(conversationID, 0, builder.build());
+        } catch (SecurityException e) {
+            // Permission revoked between the check and the post
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.example.signin.firebase;
+
+import com.example.signin.models.ChatMessage;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Decides which queued messages the outbox writes next and how long it waits after a rejected
+ * write. It holds no Android or Firestore types, and is confined to the thread that calls it
+ */
+public class OutboxQueue {
+
+    static final long INITIAL_RETRY_DELAY_MILLIS = 1000;
+    static final long MAX_RETRY_DELAY_MILLIS = 60 * 1000;
+
+    private final int maxBatchSize;
+    private final Set<String> inFlight = new HashSet<>();
+
+    private int failedAttempts;
+    private long retryAt;
+
+    /**
+     * @param maxBatchSize The most messages written in one batch
+     */
+    public OutboxQueue(int maxBatchSize) {
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * The number of queued rows to read for the next batch, so that it can still be full once
+     * the messages already being written are left out
+     * @return The row limit
+     */
+    public int getReadLimit() {
+        return maxBatchSize + inFlight.size();
+    }
+
+    /**
+     * Picks the next batch from the queued messages and marks it as being written
+     * Messages already being written are left out, so a new batch can start before the previous
+     * one is acknowledged. While a rejected write is backing off nothing is picked, which keeps
+     * newer messages from overtaking the one being retried
+     * @param queued The queued messages, oldest first
+     * @param now The current time in milliseconds, from the same clock as retry delays
+     * @return Up to maxBatchSize messages, oldest first, or an empty list if none should be written
+     */
+    public List<ChatMessage> takeBatch(List<ChatMessage> queued, long now) {
+        List<ChatMessage> batch = new ArrayList<>();
+        if (now < retryAt) {
+            return batch;
+        }
+        for (ChatMessage chatMessage : queued) {
+            if (batch.size() == maxBatchSize) {
+                break;
+            }
+            if (inFlight.add(chatMessage.id)) {
+                batch.add(chatMessage);
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * Called once Firestore has acknowledged a batch
+     * @param batch The batch returned by takeBatch()
+     */
+    public void onCommitted(List<ChatMessage> batch) {
+        release(batch);
+        failedAttempts = 0;
+        retryAt = 0;
+    }
+
+    /**
+     * Called when Firestore rejected a batch, which is then picked again once the delay passes
+     * The delay doubles with every consecutive rejection, up to MAX_RETRY_DELAY_MILLIS
+     * @param batch The batch returned by takeBatch()
+     * @param now The current time in milliseconds
+     * @return How long to wait before flushing again, in milliseconds
+     */
+    public long onFailed(List<ChatMessage> batch, long now) {
+        release(batch);
+        long delay = Math.min(INITIAL_RETRY_DELAY_MILLIS << Math.min(failedAttempts, 16), MAX_RETRY_DELAY_MILLIS);
+        failedAttempts++;
+        retryAt = now + delay;
+        return delay;
+    }
+
+    private void release(List<ChatMessage> batch) {
+        for (ChatMessage chatMessage : batch) {
+            inFlight.remove(chatMessage.id);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.example.signin.firebase;
+
+import com.example.signin.models.ChatMessage;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * What NotificationQueue holds for one conversation: the burst of pushed messages waiting to be
+ * stored, and the lines and unread count its notification shows
+ * It holds no Android types, and is confined to the queue's thread
+ */
+public class PendingNotification {
+
+    static final int MAX_LINES = 6;
+
+    private final List<ChatMessage> unsaved = new ArrayList<>();
+    private final LinkedList<String> lines = new LinkedList<>();
+    private int unreadCount;
+    private String senderID, senderName, senderImageVersion;
+    private boolean isScheduled;
+
+    /**
+     * Adds a pushed message to the burst waiting to be stored
+     * The sender details are kept from the latest message that has them
+     * @param chatMessage The pushed message
+     * @param senderName The sender's display name, may be null
+     * @param senderImageVersion The sender's avatar version, may be null
+     * @return Whether the message opens a new window, in which case a flush has to be scheduled
+     */
+    public boolean add(ChatMessage chatMessage, String senderName, String senderImageVersion) {
+        unsaved.add(chatMessage);
+        senderID = chatMessage.senderID;
+        if (senderName != null) {
+            this.senderName = senderName;
+        }
+        if (senderImageVersion != null) {
+            this.senderImageVersion = senderImageVersion;
+        }
+        if (isScheduled) {
+            return false;
+        }
+        isScheduled = true;
+        return true;
+    }
+
+    /**
+     * Closes the window and hands over its burst
+     * Only the last MAX_LINES messages are kept as lines, older ones are only counted
+     * @param notify Whether the burst is added to the notification, false while the chat is shown
+     * @return The messages of the burst, in arrival order
+     */
+    public List<ChatMessage> takeBurst(boolean notify) {
+        isScheduled = false;
+        List<ChatMessage> burst = new ArrayList<>(unsaved);
+        unsaved.clear();
+        if (notify) {
+            for (ChatMessage chatMessage : burst) {
+                lines.add(chatMessage.message);
+                if (lines.size() > MAX_LINES) {
+                    lines.removeFirst();
+                }
+            }
+            unreadCount += burst.size();
+        }
+        return burst;
+    }
+
+    /**
+     * Forgets what the notification showed, once it was dismissed or the chat was opened
+     */
+    public void clearUnread() {
+        lines.clear();
+        unreadCount = 0;
+    }
+
+    /**
+     * Used to tell whether the conversation's entry can be dropped from the queue
+     * @return Whether no flush is scheduled and nothing is shown
+     */
+    public boolean isIdle() {
+        return !isScheduled && unreadCount == 0;
+    }
+
+    public List<String> getLines() {
+        return lines;
+    }
+
+    public int getUnreadCount() {
+        return unreadCount;
+    }
+
+    public String getSenderID() {
+        return senderID;
+    }
+
+    public String getSenderName() {
+        return senderName;
+    }
+
+    public String getSenderImageVersion() {
+        return senderImageVersion;
+    }
+}
@@ -0,0 +1,226 @@
+package com.example.signin.firebase;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import androidx.annotation.MainThread;
+
+import com.example.signin.utilities.Constants;
+import com.example.signin.utilities.Metrics;
+import com.google.firebase.firestore.CollectionReference;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldPath;
+import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.SetOptions;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Publishes whether the user is in a chat and typing, and follows the same for the counterpart
+ * Both participants share one small presence document per conversation, holding the server
+ * timestamp of each participant's latest activity and keystroke. Nothing is ever cleared,
+ * readers let the timestamps expire, so leaving a chat or going offline costs no write
+ * Writes are rate limited to one per MIN_WRITE_INTERVAL_MS whatever the typing speed, and an
+ * idle open chat writes one heartbeat per HEARTBEAT_INTERVAL_MS
+ * Expiry runs on elapsedRealtime(). The counterpart's server timestamps are placed on it through
+ * the server time of the user's own latest write, so a wrong device clock doesn't keep the
+ * counterpart online or typing
+ */
+@MainThread
+public class PresenceTracker {
+
+    public enum Status { OFFLINE, ONLINE, TYPING }
+
+    private static final long MIN_WRITE_INTERVAL_MS = 3000;
+    private static final long TYPING_TIMEOUT_MS = 6000;
+    private static final long HEARTBEAT_INTERVAL_MS = 60_000;
+    private static final long ONLINE_TIMEOUT_MS = HEARTBEAT_INTERVAL_MS + 30_000;
+
+    private final String userID, counterpartID;
+    private final DocumentReference presenceDocument;
+    private final Query presenceQuery;
+    private final Listener listener;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Runnable heartbeat = this::onHeartbeat;
+    private final Runnable deferredWrite = this::writeDeferred;
+    private final Runnable expire = this::updateStatus;
+
+    private ListenerRegistration listenerRegistration;
+    private boolean isStarted, isTypingPending;
+    private long lastWriteElapsed = -MIN_WRITE_INTERVAL_MS, lastTypingElapsed = -TYPING_TIMEOUT_MS;
+    private Date counterpartLastActive, counterpartTypingAt, ownLastActive;
+    // Server time minus elapsedRealtime(), from the device clock until the user's own write returns
+    private long serverClockOffset;
+    private Status status = Status.OFFLINE;
+
+    public interface Listener {
+        /**
+         * Called on the main thread whenever the counterpart's status changes, including when
+         * a timestamp expires without any new snapshot
+         * @param status The counterpart's status
+         */
+        void onStatusChanged(Status status);
+    }
+
+    public PresenceTracker(String conversationID, String userID, String counterpartID, Listener listener) {
+        this.userID = userID;
+        this.counterpartID = counterpartID;
+        this.listener = listener;
+        CollectionReference presenceCollection = FirebaseFirestore.getInstance()
+                .collection(Constants.KEY_COLLECTION_PRESENCE);
+        presenceDocument = presenceCollection.document(conversationID);
+        // A query rather than a document listener, so the ListenerRegistry can share it
+        presenceQuery = presenceCollection.whereEqualTo(FieldPath.documentId(), conversationID);
+    }
+
+    /**
+     * Announces the user in the chat and starts following the counterpart
+     */
+    public void start() {
+        if (isStarted) {
+            return;
+        }
+        isStarted = true;
+        if (ownLastActive == null) {
+            serverClockOffset = System.currentTimeMillis() - SystemClock.elapsedRealtime();
+        }
+        requestWrite(false);
+        listenerRegistration = ListenerRegistry.getInstance().subscribe(presenceQuery, (value, error) -> {
+            if (error != null || value == null) {
+                return;
+            }
+            if (!value.getMetadata().isFromCache()) {
+                Metrics.increment(Metrics.READS_PRESENCE, value.getDocumentChanges().size());
+            }
+            counterpartLastActive = null;
+            counterpartTypingAt = null;
+            for (DocumentSnapshot documentSnapshot : value.getDocuments()) {
+                // Null while the user's own write is pending, its server time is known once confirmed
+                Date ownActive = documentSnapshot.getDate(FieldPath.of(userID, Constants.KEY_LAST_ACTIVE));
+                if (ownActive != null && !ownActive.equals(ownLastActive) && !value.getMetadata().isFromCache()
+                        && !documentSnapshot.getMetadata().hasPendingWrites()) {
+                    ownLastActive = ownActive;
+                    serverClockOffset = ownActive.getTime() - lastWriteElapsed;
+                }
+                counterpartLastActive = documentSnapshot.getDate(FieldPath.of(counterpartID, Constants.KEY_LAST_ACTIVE),
+                        DocumentSnapshot.ServerTimestampBehavior.ESTIMATE);
+                counterpartTypingAt = documentSnapshot.getDate(FieldPath.of(counterpartID, Constants.KEY_TYPING_AT),
+                        DocumentSnapshot.ServerTimestampBehavior.ESTIMATE);
+            }
+            updateStatus();
+        });
+    }
+
+    /**
+     * Stops writing and following, the user's timestamps expire on their own
+     */
+    public void stop() {
+        isStarted = false;
+        isTypingPending = false;
+        mainHandler.removeCallbacks(heartbeat);
+        mainHandler.removeCallbacks(deferredWrite);
+        mainHandler.removeCallbacks(expire);
+        if (listenerRegistration != null) {
+            listenerRegistration.remove();
+            listenerRegistration = null;
+        }
+    }
+
+    /**
+     * Called on every change of the message input, only keystrokes that can change what the
+     * counterpart sees lead to a write
+     * @param hasText Whether the input holds any text after the change
+     */
+    public void onTextChanged(boolean hasText) {
+        if (!isStarted || !hasText || isTypingPending) {
+            return;
+        }
+        long now = SystemClock.elapsedRealtime();
+        // The counterpart still sees the last keystroke, no need to repeat it yet
+        if (now - lastTypingElapsed < TYPING_TIMEOUT_MS - MIN_WRITE_INTERVAL_MS) {
+            return;
+        }
+        requestWrite(true);
+    }
+
+    /**
+     * Writes now if the rate limit allows it, otherwise once the interval has passed, folding
+     * every request made meanwhile into that one write
+     */
+    private void requestWrite(boolean isTyping) {
+        isTypingPending |= isTyping;
+        long wait = lastWriteElapsed + MIN_WRITE_INTERVAL_MS - SystemClock.elapsedRealtime();
+        mainHandler.removeCallbacks(deferredWrite);
+        if (wait > 0) {
+            mainHandler.postDelayed(deferredWrite, wait);
+        } else {
+            writeDeferred();
+        }
+    }
+
+    private void writeDeferred() {
+        if (!isStarted) {
+            return;
+        }
+        long now = SystemClock.elapsedRealtime();
+        Map<String, Object> presence = new HashMap<>();
+        presence.put(Constants.KEY_LAST_ACTIVE, FieldValue.serverTimestamp());
+        if (isTypingPending) {
+            presence.put(Constants.KEY_TYPING_AT, FieldValue.serverTimestamp());
+            lastTypingElapsed = now;
+            isTypingPending = false;
+        }
+        lastWriteElapsed = now;
+        presenceDocument.set(Collections.singletonMap(userID, presence), SetOptions.merge());
+        Metrics.increment(Metrics.WRITES_PRESENCE, 1);
+        // Any write refreshes the activity timestamp, so the heartbeat counts from the latest one
+        mainHandler.removeCallbacks(heartbeat);
+        mainHandler.postDelayed(heartbeat, HEARTBEAT_INTERVAL_MS);
+    }
+
+    private void onHeartbeat() {
+        requestWrite(false);
+    }
+
+    /**
+     * Derives the counterpart's status from the timestamps against the current time, and
+     * schedules another look for when the newest of them expires
+     */
+    private void updateStatus() {
+        mainHandler.removeCallbacks(expire);
+        long now = SystemClock.elapsedRealtime() + serverClockOffset;
+        long typingLeft = remaining(counterpartTypingAt, TYPING_TIMEOUT_MS, now);
+        long onlineLeft = remaining(counterpartLastActive, ONLINE_TIMEOUT_MS, now);
+        Status newStatus;
+        long nextCheck;
+        if (typingLeft > 0) {
+            newStatus = Status.TYPING;
+            nextCheck = typingLeft;
+        } else if (onlineLeft > 0) {
+            newStatus = Status.ONLINE;
+            nextCheck = onlineLeft;
+        } else {
+            newStatus = Status.OFFLINE;
+            nextCheck = 0;
+        }
+        if (isStarted && nextCheck > 0) {
+            mainHandler.postDelayed(expire, nextCheck);
+        }
+        if (newStatus != status) {
+            status = newStatus;
+            listener.onStatusChanged(newStatus);
+        }
+    }
+
+    private static long remaining(Date timestamp, long timeout, long now) {
+        return timestamp == null ? 0 : timestamp.getTime() + timeout - now;
+    }
+}
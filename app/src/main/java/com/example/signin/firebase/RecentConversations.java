@@ -0,0 +1,133 @@
+package com.example.signin.firebase;
+
+import com.example.signin.models.ChatMessage;
+import com.example.signin.models.User;
+import com.example.signin.utilities.Constants;
+import com.google.firebase.firestore.CollectionReference;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.SetOptions;
+import com.google.firebase.firestore.Source;
+import com.google.firebase.firestore.WriteBatch;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class RecentConversations {
+
+    /**
+     * Used to get the inbox of a user: one summary document per counterpart, kept in a
+     * subcollection of the user's document and keyed by the counterpart's ID
+     * @param userID The owner of the inbox
+     * @return The user's recent conversations collection
+     */
+    public static CollectionReference getCollection(String userID) {
+        return FirebaseFirestore.getInstance()
+                .collection(Constants.KEY_COLLECTION_USERS)
+                .document(userID)
+                .collection(Constants.KEY_COLLECTION_RECENT_CONVERSATIONS);
+    }
+
+    /**
+     * Used to get the newest conversations of a user's inbox, a single bounded query
+     * regardless of how many messages the user has exchanged
+     * @param userID The owner of the inbox
+     * @return The query for the user's RECENT_CONVERSATION_LIMIT most recent conversations
+     */
+    public static Query getInboxQuery(String userID) {
+        return getCollection(userID)
+                .orderBy(Constants.KEY_TIMESTAMP, Query.Direction.DESCENDING)
+                .limit(Constants.RECENT_CONVERSATION_LIMIT);
+    }
+
+    /**
+     * Adds the summary updates for a batch of sent messages to the outbox's write batch, so the
+     * inbox entries are committed together with the messages they describe
+     * Messages of one conversation are coalesced into a single update per participant: the
+     * newest one becomes the last message, the sender's summary is marked as read and the
+     * receiver's unread count grows by the number of messages. Each side stores the other's name
+     * and avatar version so the inbox can be drawn without reading any user document. A name or
+     * version that isn't known is left out, so the summary keeps its previous value
+     * @param batch The write batch the messages are written in
+     * @param chatMessages The sent messages, oldest first
+     * @param senderName The sender's display name
+     * @param senderImageVersion The sender's avatar version
+     * @param receivers The receiver of each message, keyed by message ID
+     */
+    public static void recordMessages(WriteBatch batch, List<ChatMessage> chatMessages, String senderName,
+                                      String senderImageVersion, Map<String, User> receivers) {
+        Map<String, ChatMessage> lastMessages = new LinkedHashMap<>();
+        Map<String, Integer> messageCounts = new HashMap<>();
+        for (ChatMessage chatMessage : chatMessages) {
+            lastMessages.put(chatMessage.conversationID, chatMessage);
+            Integer count = messageCounts.get(chatMessage.conversationID);
+            messageCounts.put(chatMessage.conversationID, count == null ? 1 : count + 1);
+        }
+        for (ChatMessage chatMessage : lastMessages.values()) {
+            User receiver = receivers.get(chatMessage.id);
+            HashMap<String, Object> senderSummary = new HashMap<>();
+            senderSummary.put(Constants.KEY_COUNTERPART_ID, chatMessage.receiverID);
+            if (receiver != null) {
+                putIfNotNull(senderSummary, Constants.KEY_COUNTERPART_NAME, receiver.name);
+                putIfNotNull(senderSummary, Constants.KEY_COUNTERPART_IMAGE_VERSION, receiver.imageVersion);
+            }
+            senderSummary.put(Constants.KEY_LAST_MESSAGE, chatMessage.message);
+            senderSummary.put(Constants.KEY_TIMESTAMP, FieldValue.serverTimestamp());
+            senderSummary.put(Constants.KEY_UNREAD_COUNT, 0);
+
+            HashMap<String, Object> receiverSummary = new HashMap<>();
+            receiverSummary.put(Constants.KEY_COUNTERPART_ID, chatMessage.senderID);
+            putIfNotNull(receiverSummary, Constants.KEY_COUNTERPART_NAME, senderName);
+            putIfNotNull(receiverSummary, Constants.KEY_COUNTERPART_IMAGE_VERSION, senderImageVersion);
+            receiverSummary.put(Constants.KEY_LAST_MESSAGE, chatMessage.message);
+            receiverSummary.put(Constants.KEY_TIMESTAMP, FieldValue.serverTimestamp());
+            receiverSummary.put(Constants.KEY_UNREAD_COUNT, FieldValue.increment(messageCounts.get(chatMessage.conversationID)));
+
+            batch.set(getCollection(chatMessage.senderID).document(chatMessage.receiverID), senderSummary, SetOptions.merge());
+            batch.set(getCollection(chatMessage.receiverID).document(chatMessage.senderID), receiverSummary, SetOptions.merge());
+        }
+    }
+
+    private static void putIfNotNull(HashMap<String, Object> summary, String key, String value) {
+        if (value != null) {
+            summary.put(key, value);
+        }
+    }
+
+    /**
+     * Clears the unread count of a conversation in the user's own inbox, if there is anything
+     * to clear. The count is looked up in Firestore's local cache, which the inbox listener keeps
+     * current, so the check costs no read and a chat visit with nothing unread costs no write
+     * @param userID The owner of the inbox
+     * @param counterpartID The other participant of the conversation
+     * @param hasNewMessages Whether messages from the counterpart arrived while the chat was
+     *                       open, which the cached count doesn't reflect once the inbox
+     *                       listener is released
+     */
+    public static void markRead(String userID, String counterpartID, boolean hasNewMessages) {
+        DocumentReference summary = getCollection(userID).document(counterpartID);
+        if (hasNewMessages) {
+            clearUnreadCount(summary);
+            return;
+        }
+        summary.get(Source.CACHE).addOnSuccessListener(documentSnapshot -> {
+            Long unreadCount = documentSnapshot.getLong(Constants.KEY_UNREAD_COUNT);
+            if (unreadCount != null && unreadCount > 0) {
+                clearUnreadCount(summary);
+            }
+        });
+    }
+
+    /**
+     * A merge also succeeds for a summary the inbox hasn't created yet, which stays out of
+     * the inbox query until a message gives it a timestamp
+     */
+    private static void clearUnreadCount(DocumentReference summary) {
+        summary.set(Collections.singletonMap(Constants.KEY_UNREAD_COUNT, 0), SetOptions.merge());
+    }
+}
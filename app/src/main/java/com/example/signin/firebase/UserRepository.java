@@ -0,0 +1,130 @@
+package com.example.signin.firebase;
+
+import androidx.annotation.MainThread;
+
+import com.example.signin.models.User;
+import com.example.signin.utilities.Constants;
+import com.example.signin.utilities.Metrics;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Process-wide cache of the users this process has seen, keyed by their ID
+ * Screens pass each other user IDs only and resolve them here, so a User never has to be
+ * serialized into an Intent
+ */
+@MainThread
+public class UserRepository {
+
+    private static UserRepository instance;
+
+    private final Map<String, User> users = new HashMap<>();
+    private final Map<String, List<Callback>> pendingFetches = new HashMap<>();
+
+    public interface Callback {
+        /**
+         * Called on the main thread once the user is known
+         * @param user The user, or null if it doesn't exist or couldn't be fetched
+         */
+        void onUserLoaded(User user);
+    }
+
+    public static synchronized UserRepository getInstance() {
+        if (instance == null) {
+            instance = new UserRepository();
+        }
+        return instance;
+    }
+
+    private UserRepository() {
+    }
+
+    /**
+     * Stores a user, replacing what was known about them before
+     * @param user The user, whose id must be set
+     */
+    public void put(User user) {
+        users.put(user.id, user);
+    }
+
+    /**
+     * Stores a user unless they are already known, for partial users such as the ones built
+     * from an inbox entry
+     * @param user The user, whose id must be set
+     */
+    public void putIfAbsent(User user) {
+        if (!users.containsKey(user.id)) {
+            users.put(user.id, user);
+        }
+    }
+
+    /**
+     * @param userID The ID of the user
+     * @return The user, or null if they aren't in memory
+     */
+    public User get(String userID) {
+        return users.get(userID);
+    }
+
+    /**
+     * Resolves a user, from memory when possible and otherwise with a single read of their
+     * document that concurrent callers share
+     * @param userID The ID of the user
+     * @param callback Called with the user, immediately if they are in memory
+     */
+    public void load(String userID, Callback callback) {
+        User user = users.get(userID);
+        if (user != null) {
+            callback.onUserLoaded(user);
+            return;
+        }
+        List<Callback> callbacks = pendingFetches.get(userID);
+        if (callbacks != null) {
+            callbacks.add(callback);
+            return;
+        }
+        callbacks = new ArrayList<>();
+        callbacks.add(callback);
+        pendingFetches.put(userID, callbacks);
+        long start = Metrics.start();
+        FirebaseFirestore.getInstance()
+                .collection(Constants.KEY_COLLECTION_USERS)
+                .document(userID)
+                .get()
+                .addOnCompleteListener(task -> {
+                    Metrics.recordSince(Metrics.QUERY_USER, start);
+                    User fetched = null;
+                    if (task.isSuccessful() && task.getResult() != null && task.getResult().exists()) {
+                        fetched = toUser(task.getResult());
+                        users.put(userID, fetched);
+                    }
+                    List<Callback> waiting = pendingFetches.remove(userID);
+                    if (waiting != null) {
+                        for (Callback waitingCallback : waiting) {
+                            waitingCallback.onUserLoaded(fetched);
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Used to read a user out of their document
+     * @param documentSnapshot A document of the User collection
+     * @return The user
+     */
+    public static User toUser(DocumentSnapshot documentSnapshot) {
+        User user = new User();
+        user.name = documentSnapshot.getString(Constants.KEY_NAME);
+        user.email = documentSnapshot.getString(Constants.KEY_EMAIL);
+        user.image = documentSnapshot.getString(Constants.KEY_IMAGE);
+        user.imageVersion = documentSnapshot.getString(Constants.KEY_IMAGE_VERSION);
+        user.token = documentSnapshot.getString(Constants.KEY_FCM_TOKEN);
+        user.id = documentSnapshot.getId();
+        return user;
+    }
+}
@@ -0,0 +1,7 @@
+package com.example.signin.listeners;
+
+import com.example.signin.models.User;
+
+public interface ConversationListener {
+    void onConversationClicked(User user);
+}
@@ -0,0 +1,7 @@
+package com.example.signin.listeners;
+
+import com.example.signin.models.MessageSearchResult;
+
+public interface SearchResultListener {
+    void onSearchResultClicked(MessageSearchResult result);
+}
@@ -1,9 +1,77 @@
 package com.example.signin.models;
 
-import java.util.Date;
+import com.example.signin.utilities.MessageTimeFormatter;
 
-public class ChatMessage {
-    public String senderID, receiverID, message, dateTime;
+/**
+ * A message of a conversation, immutable once built so it can be created on a background
+ * thread and shared with an adapter without copying
+ * The timestamp is kept in epoch milliseconds, and the participant and conversation IDs are
+ * interned, so the thousands of messages of a long conversation share the same two sender IDs
+ * instead of holding a copy each
+ */
+public final class ChatMessage {
+    public final String id, conversationID, senderID, receiverID, message;
 
-    public Date dateObject;
+    public final long timestamp;
+
+    public final boolean showDayHeader, pending;
+
+    // Derived on first bind, a race only formats the same string twice
+    private String formattedTime;
+
+    public ChatMessage(String id, String conversationID, String senderID, String receiverID,
+                       String message, long timestamp, boolean pending) {
+        this(id, intern(conversationID), intern(senderID), intern(receiverID), message, timestamp, false, pending);
+    }
+
+    private ChatMessage(String id, String conversationID, String senderID, String receiverID,
+                        String message, long timestamp, boolean showDayHeader, boolean pending) {
+        this.id = id;
+        this.conversationID = conversationID;
+        this.senderID = senderID;
+        this.receiverID = receiverID;
+        this.message = message;
+        this.timestamp = timestamp;
+        this.showDayHeader = showDayHeader;
+        this.pending = pending;
+    }
+
+    /**
+     * Used to change whether a message opens a new day without touching the instance that an
+     * adapter may already hold
+     * @param showDayHeader Whether a day separator is shown above this message
+     * @return This message if the flag is already set that way, otherwise a copy with it set
+     */
+    public ChatMessage withDayHeader(boolean showDayHeader) {
+        if (this.showDayHeader == showDayHeader) {
+            return this;
+        }
+        ChatMessage chatMessage = new ChatMessage(id, conversationID, senderID, receiverID, message,
+                timestamp, showDayHeader, pending);
+        chatMessage.formattedTime = formattedTime;
+        return chatMessage;
+    }
+
+    /**
+     * @return The time of day the message was sent, formatted once and kept
+     */
+    public String getFormattedTime() {
+        String time = formattedTime;
+        if (time == null) {
+            time = MessageTimeFormatter.formatTime(timestamp);
+            formattedTime = time;
+        }
+        return time;
+    }
+
+    /**
+     * @return The day the message was sent, as shown in the day separator
+     */
+    public String getFormattedDay() {
+        return MessageTimeFormatter.formatDay(timestamp);
+    }
+
+    private static String intern(String value) {
+        return value != null ? value.intern() : null;
+    }
 }
@@ -0,0 +1,25 @@
+package com.example.signin.models;
+
+import java.util.Comparator;
+
+public class MessageSearchResult {
+    /**
+     * Surround each matched word in the snippet
+     */
+    public static final char MATCH_START = '\u0002', MATCH_END = '\u0003';
+
+    public static final Comparator<MessageSearchResult> BY_SCORE =
+            (obj1, obj2) -> Double.compare(obj2.score, obj1.score);
+
+    public final ChatMessage chatMessage;
+
+    public final String snippet;
+
+    public final double score;
+
+    public MessageSearchResult(ChatMessage chatMessage, String snippet, double score) {
+        this.chatMessage = chatMessage;
+        this.snippet = snippet;
+        this.score = score;
+    }
+}
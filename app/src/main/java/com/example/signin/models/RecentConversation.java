@@ -0,0 +1,11 @@
+package com.example.signin.models;
+
+import java.util.Date;
+
+public class RecentConversation {
+    public String counterpartID, counterpartName, counterpartImageVersion, lastMessage;
+
+    public Date timestamp;
+
+    public long unreadCount;
+}
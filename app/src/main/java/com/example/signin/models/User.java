@@ -1,7 +1,5 @@
 package com.example.signin.models;
 
-import java.io.Serializable;
-
-public class User implements Serializable {
-    public String name, image, email, token, id;
+public class User {
+    public String name, image, imageVersion, email, token, id;
 }
@@ -0,0 +1,338 @@
+package com.example.signin.utilities;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Base64;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+public class AvatarCache {
+
+    private static final String TAG = "AvatarCache";
+    private static final String DISK_CACHE_DIRECTORY = "avatars";
+    private static final long MAX_DISK_CACHE_BYTES = 10 * 1024 * 1024;
+    private static final int CONTENT_HASH_CACHE_SIZE = 32;
+    private static final int THUMBNAIL_QUALITY = 80;
+
+    public static final String VARIANT_THUMBNAIL = "thumbnail";
+    public static final String VARIANT_FULL = "full";
+    private static final String VARIANT_INLINE = "inline";
+    private static final String VARIANT_INLINE_THUMBNAIL = "inlineThumbnail";
+
+    private static AvatarCache instance;
+
+    private final LruCache<String, Bitmap> memoryCache;
+    private final LruCache<String, String> contentHashes = new LruCache<>(CONTENT_HASH_CACHE_SIZE);
+    private final File diskCacheDirectory;
+    private final int thumbnailSize;
+    private final Object diskLock = new Object();
+
+    /**
+     * Returns the process-wide avatar cache, creating it on first use
+     * @param context Any context, only its application context is kept
+     * @return The shared AvatarCache
+     */
+    public static synchronized AvatarCache getInstance(Context context) {
+        if (instance == null) {
+            instance = new AvatarCache(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * The memory level is bounded by bitmap byte count at an eighth of the heap, the disk level
+     * keeps JPEG bytes in the app's cache directory, no larger than a thumbnail for avatars that
+     * are only shown at thumbnail sizes
+     */
+    private AvatarCache(Context context) {
+        int maxMemoryBytes = (int) Math.min(Runtime.getRuntime().maxMemory() / 8, Integer.MAX_VALUE);
+        memoryCache = new LruCache<String, Bitmap>(maxMemoryBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+        };
+        diskCacheDirectory = new File(context.getCacheDir(), DISK_CACHE_DIRECTORY);
+        thumbnailSize = Math.round(Constants.AVATAR_THUMBNAIL_MAX_DP * context.getResources().getDisplayMetrics().density);
+    }
+
+    /**
+     * Used to decide whether a view is small enough for the thumbnail variant
+     * @param targetSize The size of the view the avatar is shown in, in pixels
+     * @return Whether the view is at most AVATAR_THUMBNAIL_MAX_DP on this screen
+     */
+    public boolean isThumbnailSize(int targetSize) {
+        return targetSize <= thumbnailSize;
+    }
+
+    /**
+     * Used to retrieve a user's avatar from either cache level
+     * Entries are keyed by user ID, avatar version and variant, so a changed avatar misses the
+     * cache and replaces the user's stale entry. This may block on disk and decoding, so it
+     * should be called through ImageLoader rather than on the main thread
+     * @param userID The ID of the user the avatar belongs to
+     * @param version The avatar version from the user document
+     * @param variant Which stored variant of the avatar, e.g. the thumbnail
+     * @param targetSize The size of the view the avatar is shown in, in pixels
+     * @return The decoded avatar, or null on a miss
+     */
+    public Bitmap get(String userID, String version, String variant, int targetSize) {
+        if (userID == null || version == null) {
+            return null;
+        }
+        String key = getKey(userID, version, variant);
+        String memoryKey = getMemoryKey(key, targetSize);
+        Bitmap bitmap = memoryCache.get(memoryKey);
+        if (bitmap == null) {
+            bitmap = readFromDisk(key, targetSize);
+            if (bitmap != null) {
+                memoryCache.put(memoryKey, bitmap);
+            }
+        }
+        return bitmap;
+    }
+
+    /**
+     * Used to store a freshly downloaded avatar in both cache levels
+     * @param userID The ID of the user the avatar belongs to
+     * @param version The avatar version from the user document
+     * @param variant Which stored variant of the avatar, e.g. the thumbnail
+     * @param encodedImage The avatar as stored in Firestore, encoded in Base64
+     * @param targetSize The size of the view the avatar is shown in, in pixels
+     * @return The decoded avatar, or null if it can't be decoded
+     */
+    public Bitmap put(String userID, String version, String variant, String encodedImage, int targetSize) {
+        if (userID == null || version == null || encodedImage == null) {
+            return null;
+        }
+        String key = getKey(userID, version, variant);
+        byte[] bytes = Base64.decode(encodedImage, Base64.DEFAULT);
+        Bitmap bitmap = BitmapDecoder.decodeSampledBitmap(bytes, targetSize, targetSize);
+        if (bitmap == null) {
+            return null;
+        }
+        writeToDisk(userID, version, key, isThumbnailSize(targetSize) ? toThumbnail(bytes) : bytes);
+        memoryCache.put(getMemoryKey(key, targetSize), bitmap);
+        return bitmap;
+    }
+
+    /**
+     * Used to retrieve an avatar that is still stored inline as a Base64 string, like the
+     * avatars of accounts created before avatars moved to their own documents
+     * A SHA-256 digest of the encoded image stands in for the version
+     * @param userID The ID of the user the avatar belongs to
+     * @param encodedImage The avatar encoded in Base64
+     * @param targetSize The size of the view the avatar is shown in, in pixels
+     * @return The decoded avatar, or null if there is no image or it can't be decoded
+     */
+    public Bitmap getEncoded(String userID, String encodedImage, int targetSize) {
+        if (userID == null || encodedImage == null) {
+            return null;
+        }
+        String version = getContentHash(encodedImage);
+        String variant = getInlineVariant(targetSize);
+        Bitmap bitmap = get(userID, version, variant, targetSize);
+        if (bitmap == null) {
+            bitmap = put(userID, version, variant, encodedImage, targetSize);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Used to retrieve an avatar only if it is already decoded in memory, safe on the main thread
+     * @param userID The ID of the user the avatar belongs to
+     * @param version The avatar version from the user document
+     * @param variant Which stored variant of the avatar, e.g. the thumbnail
+     * @param targetSize The size of the view the avatar is shown in, in pixels
+     * @return The decoded avatar, or null on a memory cache miss
+     */
+    public Bitmap getFromMemory(String userID, String version, String variant, int targetSize) {
+        if (userID == null || version == null) {
+            return null;
+        }
+        return memoryCache.get(getMemoryKey(getKey(userID, version, variant), targetSize));
+    }
+
+    /**
+     * Same as getFromMemory(String, String, String, int) for an avatar stored inline in Base64
+     */
+    public Bitmap getEncodedFromMemory(String userID, String encodedImage, int targetSize) {
+        if (userID == null || encodedImage == null) {
+            return null;
+        }
+        return getFromMemory(userID, getContentHash(encodedImage), getInlineVariant(targetSize), targetSize);
+    }
+
+    /**
+     * Clears both cache levels, used when the signed in user changes
+     */
+    public void clear() {
+        memoryCache.evictAll();
+        synchronized (diskLock) {
+            File[] files = diskCacheDirectory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    private static String getKey(String userID, String version, String variant) {
+        return userID + "_" + version + "_" + variant;
+    }
+
+    private static String getMemoryKey(String key, int targetSize) {
+        return key + "@" + targetSize;
+    }
+
+    /**
+     * An inline avatar has a single stored image, so its disk copy is split by size instead
+     */
+    private String getInlineVariant(int targetSize) {
+        return isThumbnailSize(targetSize) ? VARIANT_INLINE_THUMBNAIL : VARIANT_INLINE;
+    }
+
+    /**
+     * The same avatar strings are bound over and over, so their digests are memoized
+     */
+    private String getContentHash(String encodedImage) {
+        String hash = contentHashes.get(encodedImage);
+        if (hash == null) {
+            hash = sha256(encodedImage);
+            contentHashes.put(encodedImage, hash);
+        }
+        return hash;
+    }
+
+    private static String sha256(String value) {
+        MessageDigest messageDigest;
+        try {
+            messageDigest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] digest = messageDigest.digest(value.getBytes(StandardCharsets.UTF_8));
+        StringBuilder hex = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Re-encodes an image that is larger than the thumbnail size, smaller ones are kept as they are
+     */
+    private byte[] toThumbnail(byte[] bytes) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
+        int size = Math.max(options.outWidth, options.outHeight);
+        if (size <= thumbnailSize) {
+            return bytes;
+        }
+        Bitmap bitmap = BitmapDecoder.decodeSampledBitmap(bytes, thumbnailSize, thumbnailSize);
+        if (bitmap == null) {
+            return bytes;
+        }
+        float scale = (float) thumbnailSize / Math.max(bitmap.getWidth(), bitmap.getHeight());
+        if (scale < 1) {
+            bitmap = Bitmap.createScaledBitmap(bitmap, Math.max(1, Math.round(bitmap.getWidth() * scale)),
+                    Math.max(1, Math.round(bitmap.getHeight() * scale)), true);
+        }
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.JPEG, THUMBNAIL_QUALITY, outputStream);
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * Only the file access holds the lock, the image is decoded after it has been released
+     */
+    private Bitmap readFromDisk(String key, int targetSize) {
+        byte[] bytes;
+        synchronized (diskLock) {
+            File file = new File(diskCacheDirectory, key);
+            if (!file.exists()) {
+                return null;
+            }
+            file.setLastModified(System.currentTimeMillis());
+            bytes = readFile(file);
+        }
+        return bytes != null ? BitmapDecoder.decodeSampledBitmap(bytes, targetSize, targetSize) : null;
+    }
+
+    private static byte[] readFile(File file) {
+        byte[] bytes = new byte[(int) file.length()];
+        try (DataInputStream inputStream = new DataInputStream(new FileInputStream(file))) {
+            inputStream.readFully(bytes);
+            return bytes;
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to read cached avatar " + file.getName(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Stores an avatar's image bytes, removing other versions of the same user's avatar and
+     * trimming the least recently used files once the directory grows past its limit
+     */
+    private void writeToDisk(String userID, String version, String key, byte[] bytes) {
+        synchronized (diskLock) {
+            if (!diskCacheDirectory.exists() && !diskCacheDirectory.mkdirs()) {
+                return;
+            }
+            File[] files = diskCacheDirectory.listFiles();
+            String userPrefix = userID + "_";
+            String versionPrefix = userPrefix + version + "_";
+            if (files != null) {
+                for (File file : files) {
+                    String name = file.getName();
+                    if (name.startsWith(userPrefix) && !name.startsWith(versionPrefix)) {
+                        file.delete();
+                    }
+                }
+            }
+            try (FileOutputStream outputStream = new FileOutputStream(new File(diskCacheDirectory, key))) {
+                outputStream.write(bytes);
+            } catch (IOException e) {
+                Log.w(TAG, "Unable to cache avatar " + key, e);
+            }
+            trimDiskCache();
+        }
+    }
+
+    private void trimDiskCache() {
+        File[] files = diskCacheDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        long totalBytes = 0;
+        for (File file : files) {
+            totalBytes += file.length();
+        }
+        if (totalBytes <= MAX_DISK_CACHE_BYTES) {
+            return;
+        }
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (File file : files) {
+            if (totalBytes <= MAX_DISK_CACHE_BYTES) {
+                break;
+            }
+            totalBytes -= file.length();
+            file.delete();
+        }
+    }
+}
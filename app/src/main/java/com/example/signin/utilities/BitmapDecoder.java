@@ -0,0 +1,73 @@
+package com.example.signin.utilities;
+
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+public class BitmapDecoder {
+
+    /**
+     * Decodes an encoded image no larger than needed for the requested size
+     * The bounds are read first, then the image is decoded with the largest power of two
+     * sample size that keeps both dimensions at or above the requested ones
+     * @param bytes The encoded image, e.g. JPEG bytes
+     * @param reqWidth The width the bitmap will be displayed at, in pixels
+     * @param reqHeight The height the bitmap will be displayed at, in pixels
+     * @return The decoded bitmap, or null if the bytes can't be decoded
+     */
+    public static Bitmap decodeSampledBitmap(byte[] bytes, int reqWidth, int reqHeight) {
+        long start = Metrics.start();
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
+        options.inSampleSize = calculateInSampleSize(options, reqWidth, reqHeight);
+        options.inJustDecodeBounds = false;
+        Bitmap bitmap = BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
+        Metrics.recordSince(Metrics.IMAGE_DECODE, start);
+        return bitmap;
+    }
+
+    /**
+     * Same as decodeSampledBitmap(byte[], int, int) for an image behind a content Uri
+     * The stream is opened twice so the full resolution image is never held in memory
+     * @param contentResolver Used to open the Uri
+     * @param uri The image, e.g. a photo chosen from the gallery
+     * @param reqWidth The width the bitmap will be displayed at, in pixels
+     * @param reqHeight The height the bitmap will be displayed at, in pixels
+     * @return The decoded bitmap, or null if the image can't be decoded
+     * @throws IOException If the Uri can't be opened
+     */
+    public static Bitmap decodeSampledBitmap(ContentResolver contentResolver, Uri uri,
+                                             int reqWidth, int reqHeight) throws IOException {
+        long start = Metrics.start();
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        try (InputStream inputStream = contentResolver.openInputStream(uri)) {
+            BitmapFactory.decodeStream(inputStream, null, options);
+        }
+        options.inSampleSize = calculateInSampleSize(options, reqWidth, reqHeight);
+        options.inJustDecodeBounds = false;
+        try (InputStream inputStream = contentResolver.openInputStream(uri)) {
+            return BitmapFactory.decodeStream(inputStream, null, options);
+        } finally {
+            Metrics.recordSince(Metrics.IMAGE_DECODE, start);
+        }
+    }
+
+    static int calculateInSampleSize(BitmapFactory.Options options, int reqWidth, int reqHeight) {
+        int inSampleSize = 1;
+        if (reqWidth <= 0 || reqHeight <= 0) {
+            return inSampleSize;
+        }
+        int halfWidth = options.outWidth / 2;
+        int halfHeight = options.outHeight / 2;
+        while (halfWidth / inSampleSize >= reqWidth && halfHeight / inSampleSize >= reqHeight) {
+            inSampleSize *= 2;
+        }
+        return inSampleSize;
+    }
+}
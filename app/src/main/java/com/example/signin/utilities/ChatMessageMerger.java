@@ -0,0 +1,146 @@
+package com.example.signin.utilities;
+
+import com.example.signin.models.ChatMessage;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+public class ChatMessageMerger {
+
+    public static final Comparator<ChatMessage> BY_TIMESTAMP =
+            (obj1, obj2) -> Long.compare(obj1.timestamp, obj2.timestamp);
+
+    /**
+     * Merges a batch of messages into a list that is already sorted by timestamp
+     * The batch is sorted on its own and each message is placed with a binary search, so merging
+     * k messages into n costs O(k log n) comparisons instead of re-sorting the whole list.
+     * Messages with equal timestamps keep their arrival order. A message whose document ID is
+     * already in the list is skipped, unless it confirms a pending local echo, which it replaces
+     * The confirmed copy carries the server's timestamp rather than the client time of the echo,
+     * so while the list holds pending messages they are also matched by ID and the confirmed copy
+     * is moved to its own position
+     * Day separators are maintained as messages are placed: only the inserted message and the
+     * one after it can start or stop opening a new day, so no other row is re-examined
+     * @param chatMessages The sorted list to merge into
+     * @param batch The newly received messages, in any order
+     * @return The number of messages that were inserted or replaced
+     */
+    public static int merge(List<ChatMessage> chatMessages, List<ChatMessage> batch) {
+        int inserted = 0;
+        int pendingCount = countPending(chatMessages);
+        Collections.sort(batch, BY_TIMESTAMP);
+        for (ChatMessage chatMessage : batch) {
+            int index = insertionPoint(chatMessages, chatMessage);
+            int duplicate = indexOfDuplicate(chatMessages, index, chatMessage);
+            if (duplicate < 0 && pendingCount > 0) {
+                duplicate = indexOfPending(chatMessages, chatMessage.id);
+            }
+            if (duplicate < 0) {
+                insert(chatMessages, index, chatMessage);
+                if (chatMessage.pending) {
+                    pendingCount++;
+                }
+                inserted++;
+            } else if (chatMessages.get(duplicate).pending && !chatMessage.pending) {
+                ChatMessage echo = chatMessages.get(duplicate);
+                if (echo.timestamp == chatMessage.timestamp) {
+                    chatMessages.set(duplicate, chatMessage.withDayHeader(echo.showDayHeader));
+                } else {
+                    chatMessages.remove(duplicate);
+                    updateDayHeader(chatMessages, duplicate);
+                    insert(chatMessages, insertionPoint(chatMessages, chatMessage), chatMessage);
+                }
+                pendingCount--;
+                inserted++;
+            }
+        }
+        return inserted;
+    }
+
+    private static void insert(List<ChatMessage> chatMessages, int index, ChatMessage chatMessage) {
+        chatMessages.add(index, chatMessage.withDayHeader(startsNewDay(chatMessages, index, chatMessage)));
+        updateDayHeader(chatMessages, index + 1);
+    }
+
+    private static int countPending(List<ChatMessage> chatMessages) {
+        int count = 0;
+        for (ChatMessage chatMessage : chatMessages) {
+            if (chatMessage.pending) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Pending messages are the newest ones in practice, so the list is searched from the end
+     */
+    private static int indexOfPending(List<ChatMessage> chatMessages, String id) {
+        for (int i = chatMessages.size() - 1; i >= 0; i--) {
+            ChatMessage other = chatMessages.get(i);
+            if (other.pending && other.id.equals(id)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * A duplicate has the same timestamp, so it can only sit directly before the insertion point
+     */
+    private static int indexOfDuplicate(List<ChatMessage> chatMessages, int index, ChatMessage chatMessage) {
+        for (int i = index - 1; i >= 0; i--) {
+            ChatMessage other = chatMessages.get(i);
+            if (BY_TIMESTAMP.compare(other, chatMessage) != 0) {
+                return -1;
+            }
+            if (other.id.equals(chatMessage.id)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean startsNewDay(List<ChatMessage> chatMessages, int index, ChatMessage chatMessage) {
+        return index == 0 || MessageTimeFormatter.getDayBucket(chatMessages.get(index - 1).timestamp)
+                != MessageTimeFormatter.getDayBucket(chatMessage.timestamp);
+    }
+
+    /**
+     * Messages are immutable, so a message whose separator changes is replaced by a copy, which
+     * also lets the list differ rebind it
+     */
+    private static void updateDayHeader(List<ChatMessage> chatMessages, int index) {
+        if (index >= chatMessages.size()) {
+            return;
+        }
+        ChatMessage chatMessage = chatMessages.get(index);
+        ChatMessage updated = chatMessage.withDayHeader(startsNewDay(chatMessages, index, chatMessage));
+        if (updated != chatMessage) {
+            chatMessages.set(index, updated);
+        }
+    }
+
+    /**
+     * Finds the position after the last message that is not newer than chatMessage
+     * New messages almost always belong at the end, so that case is checked before searching
+     */
+    private static int insertionPoint(List<ChatMessage> chatMessages, ChatMessage chatMessage) {
+        int size = chatMessages.size();
+        if (size == 0 || BY_TIMESTAMP.compare(chatMessages.get(size - 1), chatMessage) <= 0) {
+            return size;
+        }
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (BY_TIMESTAMP.compare(chatMessages.get(mid), chatMessage) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
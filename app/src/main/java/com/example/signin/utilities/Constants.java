@@ -11,15 +11,43 @@ public class Constants {
 
     public static final String KEY_PREFERENCE_NAME = "signinAppPreference";
     public static final String KEY_IMAGE = "image";
+    public static final String KEY_IMAGE_VERSION = "imageVersion";
+    public static final String KEY_COLLECTION_AVATARS = "Avatar";
+    public static final String KEY_COLLECTION_AVATAR_THUMBNAILS = "AvatarThumbnail";
+    public static final int AVATAR_WIDTH = 150;
+    public static final int AVATAR_THUMBNAIL_WIDTH = 100;
+    public static final int AVATAR_THUMBNAIL_MAX_DP = 50;
 
     public static final String KEY_FCM_TOKEN = "fcmToken";
 
-    public static final String KEY_USER = "user";
 
     public static final String KEY_COLLECTION_CHAT = "chat";
     public static final String KEY_SENDER_ID = "senderID";
     public static final String KEY_RECEIVER_ID = "receiverID";
     public static final String KEY_MESSAGE = "message";
     public static final String KEY_TIMESTAMP = "timestamp";
+    public static final String KEY_CONVERSATION_ID = "conversationID";
+    public static final String KEY_MESSAGE_ID = "messageID";
+
+    public static final String KEY_COLLECTION_RECENT_CONVERSATIONS = "recentConversations";
+    public static final String KEY_COUNTERPART_ID = "counterpartID";
+    public static final String KEY_COUNTERPART_NAME = "counterpartName";
+    public static final String KEY_COUNTERPART_IMAGE_VERSION = "counterpartImageVersion";
+    public static final String KEY_LAST_MESSAGE = "lastMessage";
+    public static final String KEY_UNREAD_COUNT = "unreadCount";
+
+    public static final String KEY_COLLECTION_PRESENCE = "presence";
+    public static final String KEY_LAST_ACTIVE = "lastActive";
+    public static final String KEY_TYPING_AT = "typingAt";
+
+    public static final int RECENT_CONVERSATION_LIMIT = 50;
+
+    public static final int USER_PAGE_SIZE = 30;
+    public static final int USER_PREFETCH_DISTANCE = 10;
+
+    public static final int MESSAGE_PAGE_SIZE = 50;
+    public static final int MESSAGE_PREFETCH_DISTANCE = 10;
+
+    public static final int SEARCH_RESULT_LIMIT = 50;
 
 }
@@ -0,0 +1,19 @@
+package com.example.signin.utilities;
+
+public class Conversations {
+
+    /**
+     * Builds the canonical key shared by every message between two users
+     * The IDs are ordered so both participants derive the same key, which lets a single
+     * query on KEY_CONVERSATION_ID serve the whole conversation
+     * @param userID One participant's user ID
+     * @param otherUserID The other participant's user ID
+     * @return The conversation key
+     */
+    public static String getConversationID(String userID, String otherUserID) {
+        if (userID.compareTo(otherUserID) <= 0) {
+            return userID + "_" + otherUserID;
+        }
+        return otherUserID + "_" + userID;
+    }
+}
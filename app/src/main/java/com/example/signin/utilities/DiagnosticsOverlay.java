@@ -0,0 +1,145 @@
+package com.example.signin.utilities;
+
+import android.app.Activity;
+import android.app.Application;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.content.pm.ApplicationInfo;
+import android.graphics.Color;
+import android.graphics.Typeface;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.TypedValue;
+import android.view.Gravity;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Shows the live Metrics report on top of every started activity of a debuggable build
+ * The overlay is off until an activity is launched with the diagnostics extra, for example
+ * adb shell am start -n com.example.signin/.activities.SignInActivity --ez diagnostics true
+ * The choice is kept across launches, --ez diagnostics false turns it off again
+ * Long pressing the overlay dumps the report to a file that can be pulled with
+ * adb shell run-as com.example.signin cat files/metrics.txt
+ */
+public class DiagnosticsOverlay implements Application.ActivityLifecycleCallbacks {
+
+    private static final long REFRESH_INTERVAL_MS = 1000;
+    private static final int BACKGROUND_COLOR = 0xB0000000;
+    private static final String EXTRA_ENABLED = "diagnostics";
+    private static final String PREFERENCES_NAME = "diagnostics";
+    private static final String KEY_ENABLED = "enabled";
+
+    // Loaded in the background from install(), only debuggable builds read it
+    private final SharedPreferences preferences;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Map<Activity, TextView> overlays = new HashMap<>();
+    private final Runnable refresh = new Runnable() {
+        @Override
+        public void run() {
+            String report = Metrics.report();
+            for (TextView overlay : overlays.values()) {
+                overlay.setText(report);
+            }
+            mainHandler.postDelayed(this, REFRESH_INTERVAL_MS);
+        }
+    };
+
+    /**
+     * Lets the overlay be turned on in debuggable builds only, release builds are left untouched
+     * @param application The app itself
+     */
+    public static void install(Application application) {
+        if ((application.getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0) {
+            application.registerActivityLifecycleCallbacks(new DiagnosticsOverlay(
+                    application.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE)));
+        }
+    }
+
+    private DiagnosticsOverlay(SharedPreferences preferences) {
+        this.preferences = preferences;
+    }
+
+    @Override
+    public void onActivityCreated(@NonNull Activity activity, @Nullable Bundle savedInstanceState) {
+        Intent intent = activity.getIntent();
+        if (savedInstanceState == null && intent != null && intent.hasExtra(EXTRA_ENABLED)) {
+            preferences.edit().putBoolean(KEY_ENABLED, intent.getBooleanExtra(EXTRA_ENABLED, false)).apply();
+        }
+    }
+
+    @Override
+    public void onActivityStarted(@NonNull Activity activity) {
+        if (!preferences.getBoolean(KEY_ENABLED, false)) {
+            return;
+        }
+        ViewGroup content = activity.findViewById(android.R.id.content);
+        if (content == null || overlays.containsKey(activity)) {
+            return;
+        }
+        TextView overlay = new TextView(activity);
+        overlay.setTypeface(Typeface.MONOSPACE);
+        overlay.setTextSize(TypedValue.COMPLEX_UNIT_SP, 9);
+        overlay.setTextColor(Color.WHITE);
+        overlay.setBackgroundColor(BACKGROUND_COLOR);
+        int padding = (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, 4,
+                activity.getResources().getDisplayMetrics());
+        overlay.setPadding(padding, padding, padding, padding);
+        overlay.setOnLongClickListener(v -> {
+            File file = Metrics.dump(activity.getApplicationContext());
+            Toast.makeText(activity, "Metrics written to " + file.getPath(), Toast.LENGTH_SHORT).show();
+            return true;
+        });
+        FrameLayout.LayoutParams layoutParams = new FrameLayout.LayoutParams(
+                ViewGroup.LayoutParams.WRAP_CONTENT, ViewGroup.LayoutParams.WRAP_CONTENT,
+                Gravity.START | Gravity.CENTER_VERTICAL);
+        content.addView(overlay, layoutParams);
+        overlays.put(activity, overlay);
+        if (overlays.size() == 1) {
+            mainHandler.post(refresh);
+        }
+    }
+
+    @Override
+    public void onActivityStopped(@NonNull Activity activity) {
+        TextView overlay = overlays.remove(activity);
+        if (overlay == null) {
+            return;
+        }
+        // The activity may have replaced its content view since the overlay was added
+        ViewGroup parent = (ViewGroup) overlay.getParent();
+        if (parent != null) {
+            parent.removeView(overlay);
+        }
+        if (overlays.isEmpty()) {
+            mainHandler.removeCallbacks(refresh);
+        }
+    }
+
+    @Override
+    public void onActivityResumed(@NonNull Activity activity) {
+    }
+
+    @Override
+    public void onActivityPaused(@NonNull Activity activity) {
+    }
+
+    @Override
+    public void onActivitySaveInstanceState(@NonNull Activity activity, @NonNull Bundle outState) {
+    }
+
+    @Override
+    public void onActivityDestroyed(@NonNull Activity activity) {
+    }
+}
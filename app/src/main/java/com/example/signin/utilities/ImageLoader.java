@@ -0,0 +1,219 @@
+package com.example.signin.utilities;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+import android.view.ViewGroup;
+import android.widget.ImageView;
+
+import com.example.signin.R;
+import com.example.signin.models.User;
+import com.google.firebase.firestore.FirebaseFirestore;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class ImageLoader {
+
+    private static final String TAG = "ImageLoader";
+    private static final int THREAD_COUNT = 2;
+    private static final int DEFAULT_TARGET_SIZE = 150;
+
+    private static ImageLoader instance;
+
+    private final Context context;
+    private final ExecutorService executor;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    public interface Callback {
+        void onBitmapLoaded(Bitmap bitmap);
+    }
+
+    /**
+     * Returns the process-wide image loader, creating it on first use
+     * @param context Any context, only its application context is kept
+     * @return The shared ImageLoader
+     */
+    public static synchronized ImageLoader getInstance(Context context) {
+        if (instance == null) {
+            instance = new ImageLoader(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private ImageLoader(Context context) {
+        this.context = context;
+        executor = Executors.newFixedThreadPool(THREAD_COUNT, runnable -> new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            runnable.run();
+        }, TAG));
+    }
+
+    /**
+     * Shows a user's avatar in an ImageView, picking the inline image for accounts that still
+     * have one and the separately stored avatar otherwise
+     * @param imageView The view to show the avatar in
+     * @param user The user the avatar belongs to
+     */
+    public void loadAvatar(ImageView imageView, User user) {
+        if (user.image != null) {
+            loadEncodedAvatar(imageView, user.id, user.image);
+        } else {
+            loadAvatar(imageView, user.id, user.imageVersion);
+        }
+    }
+
+    /**
+     * Shows a user's avatar in an ImageView, fetching it lazily from its own Firestore document
+     * The thumbnail variant is used for views of up to AVATAR_THUMBNAIL_MAX_DP, and the fetched
+     * image is kept in AvatarCache under its version, so each version is downloaded at most once.
+     * A failed fetch leaves the view empty and is tried again on the next bind
+     * Any earlier request for the same view is cancelled, and a result is only applied if the view
+     * hasn't been handed a newer request in the meantime, so recycled rows never show stale avatars
+     * @param imageView The view to show the avatar in
+     * @param userID The ID of the user the avatar belongs to
+     * @param imageVersion The avatar version from the user document
+     */
+    public void loadAvatar(ImageView imageView, String userID, String imageVersion) {
+        cancel(imageView);
+        AvatarCache avatarCache = AvatarCache.getInstance(context);
+        int targetSize = getTargetSize(imageView);
+        boolean isThumbnail = avatarCache.isThumbnailSize(targetSize);
+        String variant = isThumbnail ? AvatarCache.VARIANT_THUMBNAIL : AvatarCache.VARIANT_FULL;
+        Bitmap bitmap = avatarCache.getFromMemory(userID, imageVersion, variant, targetSize);
+        imageView.setImageBitmap(bitmap);
+        if (bitmap != null || userID == null || imageVersion == null) {
+            return;
+        }
+        Request request = start(imageView);
+        request.future = executor.submit(() -> {
+            Bitmap cached = avatarCache.get(userID, imageVersion, variant, targetSize);
+            if (cached != null || request.cancelled) {
+                deliver(imageView, request, cached);
+                return;
+            }
+            FirebaseFirestore.getInstance()
+                    .collection(isThumbnail ? Constants.KEY_COLLECTION_AVATAR_THUMBNAILS : Constants.KEY_COLLECTION_AVATARS)
+                    .document(userID)
+                    .get()
+                    .addOnSuccessListener(executor, documentSnapshot -> {
+                        if (request.cancelled) {
+                            return;
+                        }
+                        deliver(imageView, request, avatarCache.put(userID, imageVersion, variant,
+                                documentSnapshot.getString(Constants.KEY_IMAGE), targetSize));
+                    })
+                    .addOnFailureListener(executor, e -> {
+                        Log.w(TAG, "Unable to fetch the avatar of " + userID, e);
+                        deliver(imageView, request, null);
+                    });
+        });
+    }
+
+    /**
+     * Shows an avatar that is stored inline as a Base64 string, decoding it in the background
+     * when it isn't in memory
+     * @param imageView The view to show the avatar in
+     * @param userID The ID of the user the avatar belongs to
+     * @param encodedImage The avatar encoded in Base64
+     */
+    public void loadEncodedAvatar(ImageView imageView, String userID, String encodedImage) {
+        cancel(imageView);
+        AvatarCache avatarCache = AvatarCache.getInstance(context);
+        int targetSize = getTargetSize(imageView);
+        Bitmap bitmap = avatarCache.getEncodedFromMemory(userID, encodedImage, targetSize);
+        imageView.setImageBitmap(bitmap);
+        if (bitmap != null || userID == null || encodedImage == null) {
+            return;
+        }
+        Request request = start(imageView);
+        request.future = executor.submit(() ->
+                deliver(imageView, request, avatarCache.getEncoded(userID, encodedImage, targetSize)));
+    }
+
+    /**
+     * Decodes an image behind a content Uri in the background, sampled down to the requested size
+     * @param uri The image, e.g. a photo chosen from the gallery
+     * @param reqWidth The minimum width needed, in pixels
+     * @param reqHeight The minimum height needed, in pixels
+     * @param callback Receives the bitmap on the main thread, or null if it couldn't be decoded
+     */
+    public void loadUri(Uri uri, int reqWidth, int reqHeight, Callback callback) {
+        executor.submit(() -> {
+            Bitmap bitmap = null;
+            try {
+                bitmap = BitmapDecoder.decodeSampledBitmap(context.getContentResolver(), uri, reqWidth, reqHeight);
+            } catch (IOException e) {
+                Log.w(TAG, "Unable to decode " + uri, e);
+            }
+            Bitmap result = bitmap;
+            mainHandler.post(() -> callback.onBitmapLoaded(result));
+        });
+    }
+
+    /**
+     * The executor images are decoded on, for other work on images such as encoding one for upload
+     * @return The background executor
+     */
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Cancels the pending request of a view, used when a view holder is recycled
+     * @param imageView The view whose request should be dropped
+     */
+    public void cancel(ImageView imageView) {
+        Object tag = imageView.getTag(R.id.image_loader_request);
+        if (tag instanceof Request) {
+            Request request = (Request) tag;
+            request.cancelled = true;
+            if (request.future != null) {
+                request.future.cancel(true);
+            }
+            imageView.setTag(R.id.image_loader_request, null);
+        }
+    }
+
+    private Request start(ImageView imageView) {
+        Request request = new Request();
+        imageView.setTag(R.id.image_loader_request, request);
+        return request;
+    }
+
+    private void deliver(ImageView imageView, Request request, Bitmap bitmap) {
+        mainHandler.post(() -> {
+            if (imageView.getTag(R.id.image_loader_request) == request) {
+                imageView.setTag(R.id.image_loader_request, null);
+                imageView.setImageBitmap(bitmap);
+            }
+        });
+    }
+
+    /**
+     * The layouts give avatars fixed sizes, so the layout params are known before the first layout pass
+     */
+    private static int getTargetSize(ImageView imageView) {
+        ViewGroup.LayoutParams layoutParams = imageView.getLayoutParams();
+        int size = 0;
+        if (layoutParams != null) {
+            size = Math.max(layoutParams.width, layoutParams.height);
+        }
+        if (size <= 0) {
+            size = Math.max(imageView.getWidth(), imageView.getHeight());
+        }
+        return size > 0 ? size : DEFAULT_TARGET_SIZE;
+    }
+
+    private static class Request {
+        volatile boolean cancelled;
+        Future<?> future;
+    }
+}
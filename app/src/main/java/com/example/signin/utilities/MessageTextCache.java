@@ -0,0 +1,131 @@
+package com.example.signin.utilities;
+
+import android.os.Process;
+import android.util.LruCache;
+import android.widget.TextView;
+
+import androidx.annotation.MainThread;
+import androidx.appcompat.widget.AppCompatTextView;
+import androidx.core.text.PrecomputedTextCompat;
+import androidx.core.widget.TextViewCompat;
+
+import com.example.signin.models.ChatMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Measures message text on a background thread so a bubble's text layout isn't computed during
+ * bind. Messages are precomputed as they are ingested, keyed by their document ID, with the
+ * text metrics of the bubble they are shown in
+ * Owned by one adapter, the metrics depend on the configuration of the views it inflates
+ */
+@MainThread
+public class MessageTextCache {
+
+    private static final String TAG = "MessageTextCache";
+    private static final int MAX_CACHED_CHARACTERS = 256 * 1024;
+
+    private final LruCache<String, PrecomputedTextCompat> cache = new LruCache<String, PrecomputedTextCompat>(MAX_CACHED_CHARACTERS) {
+        @Override
+        protected int sizeOf(String key, PrecomputedTextCompat text) {
+            return Math.max(text.length(), 1);
+        }
+    };
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> new Thread(() -> {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        runnable.run();
+    }, TAG));
+    private final List<ChatMessage> waitingMessages = new ArrayList<>();
+
+    private PrecomputedTextCompat.Params params;
+    private boolean isReleased;
+
+    /**
+     * Adopts the text metrics of a message bubble, the first bubble inflated decides them
+     * @param textView The message TextView of a newly created view holder
+     * @return Whether the bubble's metrics match the precomputed text, a bubble styled
+     * differently must be given plain text
+     */
+    public boolean attach(TextView textView) {
+        PrecomputedTextCompat.Params viewParams = TextViewCompat.getTextMetricsParams(textView);
+        if (params == null) {
+            params = viewParams;
+            precompute(new ArrayList<>(waitingMessages));
+            waitingMessages.clear();
+        }
+        return params.equals(viewParams);
+    }
+
+    /**
+     * Queues messages for measurement, messages already cached are skipped
+     * Messages that arrive before the first bubble is inflated wait for its metrics
+     * @param chatMessages The messages of a newly ingested or prefetched batch
+     */
+    public void precompute(List<ChatMessage> chatMessages) {
+        if (isReleased || chatMessages.isEmpty()) {
+            return;
+        }
+        if (params == null) {
+            waitingMessages.addAll(chatMessages);
+            return;
+        }
+        List<ChatMessage> missing = new ArrayList<>();
+        for (ChatMessage chatMessage : chatMessages) {
+            if (chatMessage.message != null && cache.get(chatMessage.id) == null) {
+                missing.add(chatMessage);
+            }
+        }
+        if (missing.isEmpty()) {
+            return;
+        }
+        PrecomputedTextCompat.Params batchParams = params;
+        executor.execute(() -> {
+            for (ChatMessage chatMessage : missing) {
+                if (cache.get(chatMessage.id) == null) {
+                    cache.put(chatMessage.id, PrecomputedTextCompat.create(chatMessage.message, batchParams));
+                }
+            }
+        });
+    }
+
+    /**
+     * Shows a message's text in its bubble
+     * Cached text is applied as is. On a miss the text is measured on the default precompute
+     * thread rather than behind a queued batch, and AppCompatTextView only waits for it when the
+     * bubble is measured, which for a prefetched row is still off the critical frame
+     * @param textView The message TextView, attached before with attach()
+     * @param chatMessage The message to show
+     * @param usesPrecomputedText What attach() returned for this bubble
+     */
+    public void setText(TextView textView, ChatMessage chatMessage, boolean usesPrecomputedText) {
+        AppCompatTextView appCompatTextView = textView instanceof AppCompatTextView ? (AppCompatTextView) textView : null;
+        if (appCompatTextView != null) {
+            // A future left by an earlier bind would otherwise replace this text when measured
+            appCompatTextView.setTextFuture(null);
+        }
+        if (!usesPrecomputedText || chatMessage.message == null) {
+            textView.setText(chatMessage.message);
+            return;
+        }
+        PrecomputedTextCompat precomputedText = cache.get(chatMessage.id);
+        if (precomputedText != null) {
+            TextViewCompat.setPrecomputedText(textView, precomputedText);
+        } else if (appCompatTextView != null) {
+            appCompatTextView.setTextFuture(PrecomputedTextCompat.getTextFuture(chatMessage.message, params, null));
+        } else {
+            textView.setText(chatMessage.message);
+        }
+    }
+
+    /**
+     * Stops the background thread, queued batches are dropped
+     */
+    public void release() {
+        isReleased = true;
+        waitingMessages.clear();
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,89 @@
+package com.example.signin.utilities;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+public class MessageTimeFormatter {
+
+    private static final long MINUTE_MILLIS = 60 * 1000L;
+    private static final long DAY_MILLIS = 24 * 60 * MINUTE_MILLIS;
+    private static final int CACHE_SIZE = 256;
+
+    private static final String TIME_PATTERN = "hh:mm a";
+    private static final String DAY_PATTERN = "MMM dd, yyyy";
+
+    private static final TimeZone TIME_ZONE = TimeZone.getDefault();
+
+    /**
+     * SimpleDateFormat isn't thread safe, so each thread gets its own formatters along with
+     * direct-mapped caches of formatted minutes and days. A cache hit allocates nothing
+     */
+    private static final ThreadLocal<FormatterCache> CACHE = new ThreadLocal<FormatterCache>() {
+        @Override
+        protected FormatterCache initialValue() {
+            return new FormatterCache();
+        }
+    };
+
+    /**
+     * Used to format the time a message was sent, e.g. "09:41 AM"
+     * Messages sent within the same minute share one formatted string
+     * @param timestamp The time in epoch milliseconds
+     * @return The formatted time
+     */
+    public static String formatTime(long timestamp) {
+        return CACHE.get().format(Math.floorDiv(timestamp, MINUTE_MILLIS), MINUTE_MILLIS, false);
+    }
+
+    /**
+     * Used to format the day shown on the separator above a day's first message, e.g. "Oct 18, 2026"
+     * @param timestamp Any time within the day, in epoch milliseconds
+     * @return The formatted day
+     */
+    public static String formatDay(long timestamp) {
+        return CACHE.get().format(getDayBucket(timestamp), DAY_MILLIS, true);
+    }
+
+    /**
+     * Used to tell whether two messages were sent on the same local calendar day
+     * @param timestamp The time in epoch milliseconds
+     * @return The number of local days since the epoch
+     */
+    public static long getDayBucket(long timestamp) {
+        return Math.floorDiv(timestamp + TIME_ZONE.getOffset(timestamp), DAY_MILLIS);
+    }
+
+    private static class FormatterCache {
+        private final SimpleDateFormat timeFormat = new SimpleDateFormat(TIME_PATTERN, Locale.getDefault());
+        private final SimpleDateFormat dayFormat = new SimpleDateFormat(DAY_PATTERN, Locale.getDefault());
+        private final long[] minuteKeys = new long[CACHE_SIZE];
+        private final String[] minuteValues = new String[CACHE_SIZE];
+        private final long[] dayKeys = new long[CACHE_SIZE];
+        private final String[] dayValues = new String[CACHE_SIZE];
+
+        /**
+         * Looks a bucket up in its cache slot and formats it on a miss
+         * Day buckets are in local time, so a day is formatted from its local noon with the zone
+         * offset removed again, which stays inside the day across daylight saving changes
+         */
+        String format(long bucket, long bucketMillis, boolean isDay) {
+            long[] keys = isDay ? dayKeys : minuteKeys;
+            String[] values = isDay ? dayValues : minuteValues;
+            int slot = (int) (bucket & (CACHE_SIZE - 1));
+            if (values[slot] != null && keys[slot] == bucket) {
+                return values[slot];
+            }
+            long timestamp = bucket * bucketMillis;
+            if (isDay) {
+                timestamp += DAY_MILLIS / 2;
+                timestamp -= TIME_ZONE.getOffset(timestamp);
+            }
+            String value = (isDay ? dayFormat : timeFormat).format(new Date(timestamp));
+            keys[slot] = bucket;
+            values[slot] = value;
+            return value;
+        }
+    }
+}
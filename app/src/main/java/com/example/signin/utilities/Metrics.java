@@ -0,0 +1,220 @@
+package com.example.signin.utilities;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Process-wide counters, latency histograms and gauges for the app's hot paths
+ * Recording never takes a lock, so it is cheap enough for bind and decode paths. Histograms
+ * use the same fixed buckets everywhere, in microseconds
+ */
+public final class Metrics {
+
+    public static final String QUERY_USERS = "query.users";
+    public static final String QUERY_USER = "query.user";
+    public static final String QUERY_SEARCH = "query.search";
+    public static final String SNAPSHOT_TO_RENDER_CHAT = "render.chat";
+    public static final String SNAPSHOT_TO_RENDER_INBOX = "render.inbox";
+    public static final String IMAGE_DECODE = "image.decode";
+    public static final String BIND_CHAT = "bind.chat";
+    public static final String BIND_USERS = "bind.users";
+    public static final String BIND_CONVERSATIONS = "bind.conversations";
+    public static final String READS_USERS = "reads.users";
+    public static final String READS_MESSAGES = "reads.messages";
+    public static final String READS_INBOX = "reads.inbox";
+    public static final String READS_PRESENCE = "reads.presence";
+    public static final String WRITES_PRESENCE = "writes.presence";
+    public static final String LISTENERS_ACTIVE = "listeners.active";
+    public static final String WAIT_SESSION = "wait.session";
+
+    private static final String TAG = "Metrics";
+    private static final String DUMP_FILE = "metrics.txt";
+    private static final long[] BUCKET_BOUNDS_MICROS = {
+            50, 100, 250, 500, 1_000, 2_500, 5_000, 10_000, 25_000, 50_000,
+            100_000, 250_000, 500_000, 1_000_000, 2_500_000
+    };
+
+    private static final ConcurrentHashMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    private static class Histogram {
+        // One slot per bound plus one for everything above the last bound
+        final AtomicLongArray buckets = new AtomicLongArray(BUCKET_BOUNDS_MICROS.length + 1);
+        final LongAdder count = new LongAdder();
+        final LongAdder sumMicros = new LongAdder();
+        final AtomicLong maxMicros = new AtomicLong();
+
+        void record(long micros) {
+            int bucket = 0;
+            while (bucket < BUCKET_BOUNDS_MICROS.length && micros > BUCKET_BOUNDS_MICROS[bucket]) {
+                bucket++;
+            }
+            buckets.incrementAndGet(bucket);
+            count.increment();
+            sumMicros.add(micros);
+            long max = maxMicros.get();
+            while (micros > max && !maxMicros.compareAndSet(max, micros)) {
+                max = maxMicros.get();
+            }
+        }
+
+        /**
+         * @param fraction The quantile, between 0 and 1
+         * @return The upper bound of the bucket holding the quantile, in microseconds, or the
+         *     maximum for the overflow bucket
+         */
+        long quantileMicros(double fraction) {
+            long total = 0;
+            long[] snapshot = new long[buckets.length()];
+            for (int i = 0; i < snapshot.length; i++) {
+                snapshot[i] = buckets.get(i);
+                total += snapshot[i];
+            }
+            long rank = (long) Math.ceil(total * fraction);
+            long seen = 0;
+            for (int i = 0; i < snapshot.length; i++) {
+                seen += snapshot[i];
+                if (seen >= rank && seen > 0) {
+                    return i < BUCKET_BOUNDS_MICROS.length ? BUCKET_BOUNDS_MICROS[i] : maxMicros.get();
+                }
+            }
+            return 0;
+        }
+    }
+
+    private Metrics() {
+    }
+
+    /**
+     * @return The current time to pass to recordSince(), in nanoseconds
+     */
+    public static long start() {
+        return SystemClock.elapsedRealtimeNanos();
+    }
+
+    /**
+     * Records the time elapsed since a start() into a histogram
+     * @param name The histogram
+     * @param startNanos The value start() returned
+     */
+    public static void recordSince(String name, long startNanos) {
+        record(name, (SystemClock.elapsedRealtimeNanos() - startNanos) / 1000);
+    }
+
+    /**
+     * Records a duration into a histogram
+     * @param name The histogram
+     * @param micros The duration in microseconds
+     */
+    public static void record(String name, long micros) {
+        Histogram histogram = histograms.get(name);
+        if (histogram == null) {
+            histogram = new Histogram();
+            Histogram existing = histograms.putIfAbsent(name, histogram);
+            if (existing != null) {
+                histogram = existing;
+            }
+        }
+        histogram.record(micros);
+    }
+
+    /**
+     * Adds to a counter
+     * @param name The counter
+     * @param delta The amount to add
+     */
+    public static void increment(String name, long delta) {
+        LongAdder counter = counters.get(name);
+        if (counter == null) {
+            counter = new LongAdder();
+            LongAdder existing = counters.putIfAbsent(name, counter);
+            if (existing != null) {
+                counter = existing;
+            }
+        }
+        counter.add(delta);
+    }
+
+    /**
+     * @param name The counter
+     * @return The counter's current value, 0 if it was never incremented
+     */
+    public static long getCount(String name) {
+        LongAdder counter = counters.get(name);
+        return counter != null ? counter.sum() : 0;
+    }
+
+    /**
+     * Registers a value that is read whenever the metrics are reported
+     * @param name The gauge
+     * @param supplier Reads the value, on the thread that builds the report
+     */
+    public static void registerGauge(String name, LongSupplier supplier) {
+        gauges.put(name, supplier);
+    }
+
+    /**
+     * Builds a readable report of every metric, sorted by name
+     * Gauges are read on the calling thread
+     * @return The report
+     */
+    public static String report() {
+        StringBuilder report = new StringBuilder();
+        for (Map.Entry<String, LongSupplier> gauge : new TreeMap<>(gauges).entrySet()) {
+            report.append(String.format(Locale.US, "%-22s %d%n", gauge.getKey(), gauge.getValue().getAsLong()));
+        }
+        for (Map.Entry<String, LongAdder> counter : new TreeMap<>(counters).entrySet()) {
+            report.append(String.format(Locale.US, "%-22s %d%n", counter.getKey(), counter.getValue().sum()));
+        }
+        for (Map.Entry<String, Histogram> entry : new TreeMap<>(histograms).entrySet()) {
+            Histogram histogram = entry.getValue();
+            long count = histogram.count.sum();
+            if (count == 0) {
+                continue;
+            }
+            report.append(String.format(Locale.US, "%-22s n=%d avg=%.1fms p50<=%.1fms p95<=%.1fms max=%.1fms%n",
+                    entry.getKey(), count,
+                    histogram.sumMicros.sum() / 1000.0 / count,
+                    histogram.quantileMicros(0.5) / 1000.0,
+                    histogram.quantileMicros(0.95) / 1000.0,
+                    histogram.maxMicros.get() / 1000.0));
+        }
+        return report.toString();
+    }
+
+    /**
+     * Writes the report to metrics.txt in the app's files directory, replacing the last dump
+     * The report is built on the calling thread and written in the background
+     * @param context The Context object, in this case it is the app itself
+     * @return The file the report is written to
+     */
+    public static File dump(Context context) {
+        File file = new File(context.getFilesDir(), DUMP_FILE);
+        String report = String.format(Locale.US, "uptime %dms%n", SystemClock.elapsedRealtime()) + report();
+        executor.execute(() -> {
+            try (FileWriter writer = new FileWriter(file)) {
+                writer.write(report);
+            } catch (IOException e) {
+                Log.w(TAG, "Unable to write " + DUMP_FILE, e);
+            }
+        });
+        return file;
+    }
+}
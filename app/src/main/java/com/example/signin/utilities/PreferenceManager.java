@@ -1,17 +1,38 @@
 package com.example.signin.utilities;
 
 import android.content.Context;
-import android.content.SharedPreferences;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
 
 public class PreferenceManager {
-    private final SharedPreferences sharedPreferences;
+    private final SessionStore sessionStore;
 
     /**
-     * Binds the app's SharedPreference to sharedPreferences
+     * Binds the app's session store to sessionStore, which is shared by every PreferenceManager
      * @param context The Context object, in this case it is the app itself
      */
     public PreferenceManager(Context context) {
-        sharedPreferences = context.getSharedPreferences(Constants.KEY_PREFERENCE_NAME, Context.MODE_PRIVATE);
+        sessionStore = SessionStore.getInstance(context);
+    }
+
+    /**
+     * Starts loading the session in the background, so it is in memory by the time it is first read
+     * @param context The Context object, in this case it is the app itself
+     */
+    public static void preload(Context context) {
+        SessionStore.getInstance(context);
+    }
+
+    /**
+     * Runs a callback on the main thread once the session is in memory, right away if it already is
+     * Code that reads the session on the main thread during startup goes through here, as the
+     * getters wait for the load on the calling thread
+     * @param callback The callback
+     */
+    public void whenLoaded(Runnable callback) {
+        sessionStore.whenLoaded(callback);
     }
 
     /**
@@ -20,18 +41,18 @@ public class PreferenceManager {
      * @param value The boolean value itself
      */
     public void putBoolean(String key, Boolean value) {
-        SharedPreferences.Editor editor = sharedPreferences.edit();
-        editor.putBoolean(key, value);
-        editor.apply();
+        edit().putBoolean(key, value).apply();
     }
 
     /**
      * Used to retrieve a boolean value from a key
+     * Waits for the session to load if it hasn't yet, see whenLoaded()
      * @param key The boolean value key
      * @return The boolean value
      */
     public Boolean getBoolean(String key) {
-        return sharedPreferences.getBoolean(key, false);
+        Object value = sessionStore.get(key);
+        return value instanceof Boolean ? (Boolean) value : false;
     }
 
     /**
@@ -40,27 +61,72 @@ public class PreferenceManager {
      * @param value The string value itself
      */
     public void putString(String key, String value) {
-        SharedPreferences.Editor editor = sharedPreferences.edit();
-        editor.putString(key, value);
-        editor.apply();
+        edit().putString(key, value).apply();
     }
     /**
      * Used to retrieve a String value from a key
+     * Waits for the session to load if it hasn't yet, see whenLoaded()
      * @param key The String value key
      * @return The String value
      */
     public String getString(String key) {
-        return sharedPreferences.getString(key, null);
+        Object value = sessionStore.get(key);
+        return value instanceof String ? (String) value : null;
     }
 
     /**
-     * Clears the SharedPreference object of all key-value pairs
+     * Used to retrieve a String value without blocking the calling thread, for values such as
+     * the avatar that are kept in a file of their own
+     * @param key The String value key
+     * @param callback Receives the String value on the main thread, or null if there is none
+     */
+    public void getStringAsync(String key, Consumer<String> callback) {
+        sessionStore.getAsync(key, value -> callback.accept(value instanceof String ? (String) value : null));
+    }
+
+    /**
+     * Starts a batch of changes that is written to disk once, when it is applied
+     * @return The Editor collecting the changes
+     */
+    public Editor edit() {
+        return new Editor();
+    }
+
+    /**
+     * Clears the Preference object of all key-value pairs
      */
     public void clear() {
-        SharedPreferences.Editor editor = sharedPreferences.edit();
-        editor.clear();
-        editor.apply();
+        edit().clear().apply();
+    }
+
+    public class Editor {
+        private final Map<String, Object> changes = new HashMap<>();
+        private boolean clear;
+
+        private Editor() {
+        }
+
+        public Editor putBoolean(String key, Boolean value) {
+            changes.put(key, value);
+            return this;
+        }
+
+        public Editor putString(String key, String value) {
+            changes.put(key, value);
+            return this;
+        }
+
+        public Editor clear() {
+            clear = true;
+            return this;
+        }
 
+        /**
+         * Applies every change to memory immediately and writes them to disk in the background
+         */
+        public void apply() {
+            sessionStore.apply(changes, clear);
+        }
     }
 
 }
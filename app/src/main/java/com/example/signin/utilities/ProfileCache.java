@@ -0,0 +1,164 @@
+package com.example.signin.utilities;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.AtomicFile;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.example.signin.models.User;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * Keeps the last known profile of the users who recently signed in on this device, keyed by
+ * their ID, so a user whose session was lost without signing out can be shown their profile
+ * before the network has answered. It is cleared on sign out along with the session
+ * Files are read and written on a background thread, and only the MAX_PROFILES most recently
+ * used profiles are kept
+ */
+public class ProfileCache {
+
+    private static final String TAG = "ProfileCache";
+    private static final String PROFILE_DIR = "profiles";
+    private static final int MAX_PROFILES = 4;
+
+    private static ProfileCache instance;
+
+    private final File directory;
+    private final LruCache<String, User> profiles = new LruCache<>(MAX_PROFILES);
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    public static synchronized ProfileCache getInstance(Context context) {
+        if (instance == null) {
+            instance = new ProfileCache(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private ProfileCache(Context context) {
+        directory = new File(context.getFilesDir(), PROFILE_DIR);
+    }
+
+    /**
+     * Used to get the cached profile of a user
+     * @param userID The ID of the user
+     * @param callback Receives the cached profile on the main thread, or null if the user hasn't
+     *                 signed in on this device recently
+     */
+    public void get(String userID, Consumer<User> callback) {
+        User user = profiles.get(userID);
+        if (user != null) {
+            callback.accept(user);
+            return;
+        }
+        executor.execute(() -> {
+            User profile = read(userID);
+            if (profile != null) {
+                profiles.put(userID, profile);
+            }
+            mainHandler.post(() -> callback.accept(profile));
+        });
+    }
+
+    /**
+     * Stores the profile of a user, replacing any earlier one
+     * @param user The profile, whose id must be set
+     */
+    public void put(User user) {
+        profiles.put(user.id, user);
+        executor.execute(() -> write(user));
+    }
+
+    /**
+     * Removes every cached profile, used when the signed in user signs out
+     */
+    public void clear() {
+        profiles.evictAll();
+        executor.execute(() -> {
+            File[] files = directory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+        });
+    }
+
+    private User read(String userID) {
+        AtomicFile file = getFile(userID);
+        try {
+            JSONObject jsonObject = new JSONObject(new String(file.readFully(), StandardCharsets.UTF_8));
+            User user = new User();
+            user.id = userID;
+            user.name = jsonObject.optString(Constants.KEY_NAME, null);
+            user.email = jsonObject.optString(Constants.KEY_EMAIL, null);
+            user.image = jsonObject.optString(Constants.KEY_IMAGE, null);
+            user.imageVersion = jsonObject.optString(Constants.KEY_IMAGE_VERSION, null);
+            file.getBaseFile().setLastModified(System.currentTimeMillis());
+            return user;
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException | JSONException e) {
+            Log.w(TAG, "Unable to read profile " + userID, e);
+            return null;
+        }
+    }
+
+    private void write(User user) {
+        AtomicFile file = getFile(user.id);
+        FileOutputStream outputStream = null;
+        try {
+            JSONObject jsonObject = new JSONObject();
+            jsonObject.put(Constants.KEY_NAME, user.name);
+            jsonObject.put(Constants.KEY_EMAIL, user.email);
+            jsonObject.put(Constants.KEY_IMAGE, user.image);
+            jsonObject.put(Constants.KEY_IMAGE_VERSION, user.imageVersion);
+            if (!directory.exists() && !directory.mkdirs()) {
+                throw new IOException("Unable to create " + directory);
+            }
+            outputStream = file.startWrite();
+            outputStream.write(jsonObject.toString().getBytes(StandardCharsets.UTF_8));
+            file.finishWrite(outputStream);
+        } catch (IOException | JSONException e) {
+            Log.w(TAG, "Unable to write profile " + user.id, e);
+            if (outputStream != null) {
+                file.failWrite(outputStream);
+            }
+            return;
+        }
+        trim();
+    }
+
+    /**
+     * Deletes the least recently used profiles beyond MAX_PROFILES
+     */
+    private void trim() {
+        File[] files = directory.listFiles();
+        if (files == null || files.length <= MAX_PROFILES) {
+            return;
+        }
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified).reversed());
+        for (int i = MAX_PROFILES; i < files.length; i++) {
+            files[i].delete();
+        }
+    }
+
+    private AtomicFile getFile(String userID) {
+        return new AtomicFile(new File(directory, userID + ".json"));
+    }
+}
@@ -0,0 +1,303 @@
+package com.example.signin.utilities;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * Process-wide, file-backed store behind PreferenceManager
+ * Values live in an in-memory snapshot that is loaded once on a background thread, and each
+ * batch of changes is written as a whole to an AtomicFile. Large values such as the avatar are
+ * kept in files of their own, so they are only read when asked for
+ * Reads and writes made before the load has finished wait for it on the calling thread. The main
+ * thread should not, startup code asks for whenLoaded() instead, and any wait that still
+ * happens is recorded in Metrics.WAIT_SESSION and logged when it is on the main thread
+ */
+class SessionStore {
+
+    private static final String TAG = "SessionStore";
+    private static final String SESSION_FILE = "session.json";
+    private static final String BLOB_FILE_PREFIX = "session_";
+    private static final Set<String> BLOB_KEYS = Collections.singleton(Constants.KEY_IMAGE);
+
+    private static SessionStore instance;
+
+    private final Context context;
+    private final AtomicFile sessionFile;
+    private final ExecutorService writeExecutor = Executors.newSingleThreadExecutor();
+    private final CountDownLatch loaded = new CountDownLatch(1);
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Object lock = new Object();
+    private final List<Runnable> loadCallbacks = new ArrayList<>();
+    private final Map<String, Object> values = new HashMap<>();
+    private final Map<String, String> blobs = new HashMap<>();
+    private final Set<String> missingBlobs = new HashSet<>();
+
+    static synchronized SessionStore getInstance(Context context) {
+        if (instance == null) {
+            instance = new SessionStore(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private SessionStore(Context context) {
+        this.context = context;
+        sessionFile = new AtomicFile(new File(context.getFilesDir(), SESSION_FILE));
+        writeExecutor.execute(this::load);
+    }
+
+    /**
+     * Runs a callback on the main thread once the snapshot is in memory, so it can read the
+     * session without waiting
+     * Called on the main thread, the callback runs right away when the load has already finished
+     * @param callback The callback
+     */
+    void whenLoaded(Runnable callback) {
+        synchronized (lock) {
+            if (loaded.getCount() > 0) {
+                loadCallbacks.add(callback);
+                return;
+            }
+        }
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            callback.run();
+        } else {
+            mainHandler.post(callback);
+        }
+    }
+
+    /**
+     * Reads a value on the write thread, after the load and any queued writes, and hands it to a
+     * callback on the main thread, for values such as the avatar that may have to come from disk
+     * @param key The value key
+     * @param callback Receives the value, or null if there is none
+     */
+    void getAsync(String key, Consumer<Object> callback) {
+        writeExecutor.execute(() -> {
+            Object value = get(key);
+            mainHandler.post(() -> callback.accept(value));
+        });
+    }
+
+    Object get(String key) {
+        awaitLoaded();
+        if (BLOB_KEYS.contains(key)) {
+            return getBlob(key);
+        }
+        synchronized (lock) {
+            return values.get(key);
+        }
+    }
+
+    /**
+     * Applies a batch of changes to the snapshot at once and writes it in the background
+     * A null value removes its key
+     * @param changes The changed keys and their new values
+     * @param clear Whether every existing value is removed before the changes are applied
+     */
+    void apply(Map<String, Object> changes, boolean clear) {
+        awaitLoaded();
+        Map<String, Object> snapshot;
+        Map<String, String> changedBlobs = new HashMap<>();
+        synchronized (lock) {
+            if (clear) {
+                values.clear();
+                for (String key : BLOB_KEYS) {
+                    blobs.remove(key);
+                    missingBlobs.add(key);
+                    changedBlobs.put(key, null);
+                }
+            }
+            for (Map.Entry<String, Object> change : changes.entrySet()) {
+                String key = change.getKey();
+                Object value = change.getValue();
+                if (BLOB_KEYS.contains(key)) {
+                    changedBlobs.put(key, (String) value);
+                    if (value == null) {
+                        blobs.remove(key);
+                        missingBlobs.add(key);
+                    } else {
+                        blobs.put(key, (String) value);
+                        missingBlobs.remove(key);
+                    }
+                } else if (value == null) {
+                    values.remove(key);
+                } else {
+                    values.put(key, value);
+                }
+            }
+            snapshot = new HashMap<>(values);
+        }
+        writeExecutor.execute(() -> {
+            write(snapshot);
+            for (Map.Entry<String, String> blob : changedBlobs.entrySet()) {
+                writeBlob(blob.getKey(), blob.getValue());
+            }
+        });
+    }
+
+    private void awaitLoaded() {
+        if (loaded.getCount() == 0) {
+            return;
+        }
+        long start = Metrics.start();
+        boolean interrupted = false;
+        while (true) {
+            try {
+                loaded.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        Metrics.recordSince(Metrics.WAIT_SESSION, start);
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            Log.w(TAG, "Main thread waited " + (Metrics.start() - start) / 1_000_000 + " ms for the session to load");
+        }
+    }
+
+    /**
+     * Reads the snapshot, importing the values of the old SharedPreferences file the first time
+     */
+    private void load() {
+        try {
+            if (sessionFile.getBaseFile().exists()) {
+                JSONObject jsonObject = new JSONObject(new String(sessionFile.readFully(), StandardCharsets.UTF_8));
+                synchronized (lock) {
+                    Iterator<String> keys = jsonObject.keys();
+                    while (keys.hasNext()) {
+                        String key = keys.next();
+                        values.put(key, jsonObject.get(key));
+                    }
+                }
+            } else {
+                migrateSharedPreferences();
+            }
+        } catch (IOException | JSONException e) {
+            Log.w(TAG, "Unable to read session", e);
+        } finally {
+            List<Runnable> callbacks;
+            synchronized (lock) {
+                loaded.countDown();
+                callbacks = new ArrayList<>(loadCallbacks);
+                loadCallbacks.clear();
+            }
+            for (Runnable callback : callbacks) {
+                mainHandler.post(callback);
+            }
+        }
+    }
+
+    private void migrateSharedPreferences() {
+        SharedPreferences sharedPreferences = context.getSharedPreferences(Constants.KEY_PREFERENCE_NAME, Context.MODE_PRIVATE);
+        Map<String, ?> legacyValues = sharedPreferences.getAll();
+        if (legacyValues.isEmpty()) {
+            return;
+        }
+        Map<String, Object> snapshot = new HashMap<>();
+        for (Map.Entry<String, ?> entry : legacyValues.entrySet()) {
+            if (BLOB_KEYS.contains(entry.getKey())) {
+                writeBlob(entry.getKey(), (String) entry.getValue());
+            } else if (entry.getValue() != null) {
+                snapshot.put(entry.getKey(), entry.getValue());
+            }
+        }
+        synchronized (lock) {
+            values.putAll(snapshot);
+        }
+        write(snapshot);
+        sharedPreferences.edit().clear().commit();
+    }
+
+    private void write(Map<String, Object> snapshot) {
+        FileOutputStream outputStream = null;
+        try {
+            byte[] bytes = new JSONObject(snapshot).toString().getBytes(StandardCharsets.UTF_8);
+            outputStream = sessionFile.startWrite();
+            outputStream.write(bytes);
+            sessionFile.finishWrite(outputStream);
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to write session", e);
+            if (outputStream != null) {
+                sessionFile.failWrite(outputStream);
+            }
+        }
+    }
+
+    private String getBlob(String key) {
+        synchronized (lock) {
+            if (blobs.containsKey(key)) {
+                return blobs.get(key);
+            }
+            if (missingBlobs.contains(key)) {
+                return null;
+            }
+        }
+        String value = null;
+        try {
+            value = new String(getBlobFile(key).readFully(), StandardCharsets.UTF_8);
+        } catch (FileNotFoundException e) {
+            // Never written, cached as missing below
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to read " + key, e);
+        }
+        synchronized (lock) {
+            if (value == null) {
+                missingBlobs.add(key);
+            } else {
+                blobs.put(key, value);
+            }
+        }
+        return value;
+    }
+
+    private void writeBlob(String key, String value) {
+        AtomicFile blobFile = getBlobFile(key);
+        if (value == null) {
+            blobFile.delete();
+            return;
+        }
+        FileOutputStream outputStream = null;
+        try {
+            outputStream = blobFile.startWrite();
+            outputStream.write(value.getBytes(StandardCharsets.UTF_8));
+            blobFile.finishWrite(outputStream);
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to write " + key, e);
+            if (outputStream != null) {
+                blobFile.failWrite(outputStream);
+            }
+        }
+    }
+
+    private AtomicFile getBlobFile(String key) {
+        return new AtomicFile(new File(context.getFilesDir(), BLOB_FILE_PREFIX + key));
+    }
+}
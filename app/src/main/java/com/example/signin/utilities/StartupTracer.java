@@ -0,0 +1,90 @@
+package com.example.signin.utilities;
+
+import android.app.Activity;
+import android.content.Context;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Records how long each startup phase took, measured from the moment the process was forked,
+ * and appends the results to startup.log in the app's files directory
+ * Each phase is recorded at most once per process
+ */
+public final class StartupTracer {
+
+    public static final String PHASE_FIRST_FRAME = "first_frame";
+    public static final String PHASE_FIRST_DATA = "first_data";
+
+    private static final String TAG = "StartupTracer";
+    private static final String LOG_FILE = "startup.log";
+    private static final long MAX_LOG_BYTES = 64 * 1024;
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    private static boolean firstFrameRecorded;
+    private static boolean firstDataRecorded;
+
+    private StartupTracer() {
+    }
+
+    /**
+     * Records the first frame of the process once the activity's window is about to draw
+     * @param activity The activity whose first frame is being waited on
+     */
+    public static void traceFirstFrame(Activity activity) {
+        if (firstFrameRecorded) {
+            return;
+        }
+        firstFrameRecorded = true;
+        Context context = activity.getApplicationContext();
+        View decorView = activity.getWindow().getDecorView();
+        decorView.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                decorView.getViewTreeObserver().removeOnPreDrawListener(this);
+                record(context, PHASE_FIRST_FRAME);
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Records the first time real content has been shown to the user
+     * @param context The Context object, in this case it is the app itself
+     */
+    public static void traceFirstData(Context context) {
+        if (firstDataRecorded) {
+            return;
+        }
+        firstDataRecorded = true;
+        record(context.getApplicationContext(), PHASE_FIRST_DATA);
+    }
+
+    private static void record(Context context, String phase) {
+        long elapsed = SystemClock.elapsedRealtime() - Process.getStartElapsedRealtime();
+        long wallTime = System.currentTimeMillis();
+        executor.execute(() -> append(context, String.format(Locale.US, "%d %d %s %d%n",
+                wallTime, Process.myPid(), phase, elapsed)));
+    }
+
+    private static void append(Context context, String line) {
+        File file = new File(context.getFilesDir(), LOG_FILE);
+        if (file.length() > MAX_LOG_BYTES && !file.delete()) {
+            Log.w(TAG, "Unable to rotate " + LOG_FILE);
+        }
+        try (FileWriter writer = new FileWriter(file, true)) {
+            writer.write(line);
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to write " + LOG_FILE, e);
+        }
+    }
+}
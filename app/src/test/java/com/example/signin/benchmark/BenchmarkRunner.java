@@ -0,0 +1,188 @@
+package com.example.signin.benchmark;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Minimal JMH-style harness for running hot paths on the host JVM
+ * Every benchmark is warmed up, then measured over several iterations of a fixed number of
+ * operations. Time is reported per operation, and so is the memory the benchmark thread
+ * allocated, when the JVM can report it
+ */
+public class BenchmarkRunner {
+
+    /**
+     * A measured operation, whose return value is consumed so the JIT can't drop the work
+     */
+    public interface Operation {
+        Object run();
+    }
+
+    /**
+     * Builds the input of an operation, outside of the measured time
+     * @param <T> The type of the input
+     */
+    public interface Setup<T> {
+        T create();
+    }
+
+    /**
+     * An operation that runs on a fresh input every time
+     * @param <T> The type of the input
+     */
+    public interface InputOperation<T> {
+        Object run(T input);
+    }
+
+    public static class Result {
+        public final String name;
+        public final int operationsPerIteration;
+        public final double meanNanosPerOperation, medianNanosPerOperation;
+        public final double minNanosPerOperation, maxNanosPerOperation;
+        public final double bytesPerOperation;
+
+        Result(String name, int operationsPerIteration, double[] nanosPerOperation, double bytesPerOperation) {
+            this.name = name;
+            this.operationsPerIteration = operationsPerIteration;
+            double[] sorted = nanosPerOperation.clone();
+            Arrays.sort(sorted);
+            double sum = 0;
+            for (double value : sorted) {
+                sum += value;
+            }
+            meanNanosPerOperation = sum / sorted.length;
+            medianNanosPerOperation = sorted[sorted.length / 2];
+            minNanosPerOperation = sorted[0];
+            maxNanosPerOperation = sorted[sorted.length - 1];
+            this.bytesPerOperation = bytesPerOperation;
+        }
+    }
+
+    private static volatile Object sink;
+
+    private final int warmupIterations;
+    private final int measuredIterations;
+    private final List<Result> results = new ArrayList<>();
+
+    public BenchmarkRunner(int warmupIterations, int measuredIterations) {
+        this.warmupIterations = warmupIterations;
+        this.measuredIterations = measuredIterations;
+    }
+
+    /**
+     * Runs a benchmark whose operation needs no fresh input
+     * @param name The name it is reported under
+     * @param operationsPerIteration How many times the operation runs per measured iteration
+     * @param operation The operation
+     * @return The result, which is also kept for the report
+     */
+    public Result run(String name, int operationsPerIteration, Operation operation) {
+        return run(name, operationsPerIteration, () -> null, input -> operation.run());
+    }
+
+    /**
+     * Runs a benchmark whose operation consumes its input, such as a merge into a list
+     * The inputs of an iteration are all created before it is timed
+     * @param name The name it is reported under
+     * @param operationsPerIteration How many times the operation runs per measured iteration
+     * @param setup Creates one input per operation
+     * @param operation The operation
+     * @param <T> The type of the input
+     * @return The result, which is also kept for the report
+     */
+    public <T> Result run(String name, int operationsPerIteration, Setup<T> setup, InputOperation<T> operation) {
+        for (int i = 0; i < warmupIterations; i++) {
+            iterate(operationsPerIteration, setup, operation);
+        }
+        double[] nanosPerOperation = new double[measuredIterations];
+        long allocatedBytes = 0;
+        boolean allocationSupported = true;
+        for (int i = 0; i < measuredIterations; i++) {
+            long[] measurement = iterate(operationsPerIteration, setup, operation);
+            nanosPerOperation[i] = (double) measurement[0] / operationsPerIteration;
+            if (measurement[1] < 0) {
+                allocationSupported = false;
+            }
+            allocatedBytes += measurement[1];
+        }
+        double bytesPerOperation = allocationSupported
+                ? (double) allocatedBytes / ((long) measuredIterations * operationsPerIteration)
+                : -1;
+        Result result = new Result(name, operationsPerIteration, nanosPerOperation, bytesPerOperation);
+        results.add(result);
+        return result;
+    }
+
+    private static <T> long[] iterate(int operations, Setup<T> setup, InputOperation<T> operation) {
+        List<T> inputs = new ArrayList<>(operations);
+        for (int i = 0; i < operations; i++) {
+            inputs.add(setup.create());
+        }
+        long allocatedBefore = getAllocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < operations; i++) {
+            sink = operation.run(inputs.get(i));
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocatedAfter = getAllocatedBytes();
+        long allocated = allocatedBefore < 0 || allocatedAfter < 0 ? -1 : allocatedAfter - allocatedBefore;
+        return new long[]{elapsed, allocated};
+    }
+
+    private static long getAllocatedBytes() {
+        java.lang.management.ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) threadMXBean;
+            if (allocationBean.isThreadAllocatedMemorySupported() && allocationBean.isThreadAllocatedMemoryEnabled()) {
+                return allocationBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return Every result so far, in the order the benchmarks ran
+     */
+    public List<Result> getResults() {
+        return results;
+    }
+
+    /**
+     * Writes every result so far as a JSON document
+     * @param file The report file, its directory is created if needed
+     * @throws IOException If the report can't be written
+     */
+    public void writeReport(File file) throws IOException {
+        File directory = file.getParentFile();
+        if (directory != null && !directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Unable to create " + directory);
+        }
+        StringBuilder json = new StringBuilder();
+        json.append("{\n  \"jvm\": \"").append(System.getProperty("java.vm.name"))
+                .append(' ').append(System.getProperty("java.version")).append("\",\n");
+        json.append("  \"warmupIterations\": ").append(warmupIterations).append(",\n");
+        json.append("  \"measuredIterations\": ").append(measuredIterations).append(",\n");
+        json.append("  \"benchmarks\": [\n");
+        for (int i = 0; i < results.size(); i++) {
+            Result result = results.get(i);
+            json.append(String.format(Locale.US,
+                    "    {\"name\": \"%s\", \"operationsPerIteration\": %d, \"meanNanosPerOp\": %.1f, "
+                            + "\"medianNanosPerOp\": %.1f, \"minNanosPerOp\": %.1f, \"maxNanosPerOp\": %.1f, "
+                            + "\"bytesPerOp\": %.1f}",
+                    result.name, result.operationsPerIteration, result.meanNanosPerOperation,
+                    result.medianNanosPerOperation, result.minNanosPerOperation, result.maxNanosPerOperation,
+                    result.bytesPerOperation));
+            json.append(i < results.size() - 1 ? ",\n" : "\n");
+        }
+        json.append("  ]\n}\n");
+        try (FileWriter writer = new FileWriter(file)) {
+            writer.write(json.toString());
+        }
+    }
+}
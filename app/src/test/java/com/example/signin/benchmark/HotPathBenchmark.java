@@ -0,0 +1,246 @@
+package com.example.signin.benchmark;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
+
+import com.example.signin.adapters.ChatAdapter;
+import com.example.signin.models.ChatMessage;
+import com.example.signin.utilities.ChatMessageMerger;
+import com.example.signin.utilities.Constants;
+import com.example.signin.utilities.MessageTimeFormatter;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Benchmarks of the paths every incoming message and every avatar goes through, run on the
+ * host JVM with ./gradlew testDebugUnitTest -Pbenchmark --tests "*HotPathBenchmark*"
+ * Unit test runs without -Pbenchmark leave them out. The report is written to
+ * app/build/reports/benchmarks/hot-paths.json
+ */
+public class HotPathBenchmark {
+
+    private static final int WARMUP_ITERATIONS = 5;
+    private static final int MEASURED_ITERATIONS = 10;
+    private static final int HISTORY_SIZE = 1000;
+    private static final long START_TIMESTAMP = 1700000000000L;
+    private static final long MESSAGE_INTERVAL_MS = 7 * 60 * 1000L;
+    private static final int AVATAR_BYTES = 12 * 1024;
+    private static final List<String> BENCHMARKS = Arrays.asList(
+            "ingest.mapDocuments", "ingest.mergeFirstPage", "ingest.mergeNewMessage",
+            "ingest.mergeOlderPage", "ingest.mergeReplayedPage",
+            "format.timeCached", "format.timeUncached", "format.day",
+            "avatar.encode", "avatar.decode",
+            "adapter.diffAppend", "adapter.diffConfirmPending", "adapter.diffOlderPage");
+
+    @Test
+    public void runHotPathBenchmarks() throws IOException {
+        BenchmarkRunner runner = new BenchmarkRunner(WARMUP_ITERATIONS, MEASURED_ITERATIONS);
+        benchmarkIngest(runner);
+        benchmarkTimeFormatting(runner);
+        benchmarkAvatarEncoding(runner);
+        benchmarkListUpdates(runner);
+
+        List<String> names = new ArrayList<>();
+        for (BenchmarkRunner.Result result : runner.getResults()) {
+            names.add(result.name);
+            assertTrue(result.name, result.minNanosPerOperation > 0);
+            assertTrue(result.name, result.minNanosPerOperation <= result.medianNanosPerOperation);
+            assertTrue(result.name, result.medianNanosPerOperation <= result.maxNanosPerOperation);
+        }
+        assertEquals(BENCHMARKS, names);
+
+        File report = new File("build/reports/benchmarks/hot-paths.json");
+        runner.writeReport(report);
+        assertTrue(report.length() > 0);
+    }
+
+    /**
+     * The path of a snapshot: mapping documents to messages, then merging them into the
+     * displayed conversation
+     */
+    private void benchmarkIngest(BenchmarkRunner runner) {
+        List<Map<String, Object>> documents = createDocuments(0, Constants.MESSAGE_PAGE_SIZE);
+        runner.run("ingest.mapDocuments", 200, () -> {
+            List<ChatMessage> chatMessages = new ArrayList<>(documents.size());
+            for (Map<String, Object> document : documents) {
+                chatMessages.add(toChatMessage(document));
+            }
+            return chatMessages;
+        });
+
+        List<ChatMessage> history = createHistory(HISTORY_SIZE);
+        List<ChatMessage> newestPage = createMessages(0, Constants.MESSAGE_PAGE_SIZE);
+        List<ChatMessage> newMessage = createMessages(HISTORY_SIZE, 1);
+        List<ChatMessage> olderPage = createMessages(-Constants.MESSAGE_PAGE_SIZE, Constants.MESSAGE_PAGE_SIZE);
+        List<ChatMessage> replayedPage = new ArrayList<>(history.subList(HISTORY_SIZE - Constants.MESSAGE_PAGE_SIZE, HISTORY_SIZE));
+        // Each merge takes the path it is named after
+        assertEquals(1, ChatMessageMerger.merge(new ArrayList<>(history), newMessage));
+        assertEquals(Constants.MESSAGE_PAGE_SIZE, ChatMessageMerger.merge(new ArrayList<>(history), olderPage));
+        assertEquals(0, ChatMessageMerger.merge(new ArrayList<>(history), replayedPage));
+
+        runner.run("ingest.mergeFirstPage", 200,
+                ArrayList<ChatMessage>::new,
+                chatMessages -> ChatMessageMerger.merge(chatMessages, newestPage));
+
+        runner.run("ingest.mergeNewMessage", 200,
+                () -> new ArrayList<>(history),
+                chatMessages -> ChatMessageMerger.merge(chatMessages, newMessage));
+
+        runner.run("ingest.mergeOlderPage", 200,
+                () -> new ArrayList<>(history),
+                chatMessages -> ChatMessageMerger.merge(chatMessages, olderPage));
+
+        runner.run("ingest.mergeReplayedPage", 200,
+                () -> new ArrayList<>(history),
+                chatMessages -> ChatMessageMerger.merge(chatMessages, replayedPage));
+    }
+
+    /**
+     * Binding the time of every row, both for rows that were already formatted and for a
+     * stream of distinct timestamps
+     */
+    private void benchmarkTimeFormatting(BenchmarkRunner runner) {
+        long[] timestamps = new long[Constants.MESSAGE_PAGE_SIZE];
+        for (int i = 0; i < timestamps.length; i++) {
+            timestamps[i] = START_TIMESTAMP + i * MESSAGE_INTERVAL_MS;
+        }
+        runner.run("format.timeCached", 1000, () -> {
+            String last = null;
+            for (long timestamp : timestamps) {
+                last = MessageTimeFormatter.formatTime(timestamp);
+            }
+            return last;
+        });
+        long[] next = {START_TIMESTAMP};
+        runner.run("format.timeUncached", 20000, () -> {
+            next[0] += MESSAGE_INTERVAL_MS;
+            return MessageTimeFormatter.formatTime(next[0]);
+        });
+        runner.run("format.day", 20000, () -> {
+            next[0] += MESSAGE_INTERVAL_MS;
+            return MessageTimeFormatter.formatDay(next[0]);
+        });
+    }
+
+    /**
+     * Avatars are JPEG bytes stored as Base64 strings. The host JVM has no android.util.Base64
+     * or Bitmap, so java.util.Base64 stands in for the encoding on random bytes of a typical
+     * avatar's size, which costs the same per byte
+     */
+    private void benchmarkAvatarEncoding(BenchmarkRunner runner) {
+        byte[] avatar = new byte[AVATAR_BYTES];
+        new Random(42).nextBytes(avatar);
+        String encoded = Base64.getEncoder().encodeToString(avatar);
+        runner.run("avatar.encode", 2000, () -> Base64.getEncoder().encodeToString(avatar));
+        runner.run("avatar.decode", 2000, () -> Base64.getDecoder().decode(encoded));
+    }
+
+    /**
+     * The diff the chat adapter computes in the background for each submitted list
+     */
+    private void benchmarkListUpdates(BenchmarkRunner runner) {
+        List<ChatMessage> history = createHistory(HISTORY_SIZE);
+
+        List<ChatMessage> appended = new ArrayList<>(history);
+        ChatMessageMerger.merge(appended, createMessages(HISTORY_SIZE, 1));
+        runner.run("adapter.diffAppend", 100, () -> calculateDiff(history, appended));
+
+        List<ChatMessage> confirmed = new ArrayList<>(history);
+        ChatMessage last = confirmed.get(HISTORY_SIZE - 1);
+        ChatMessage pending = new ChatMessage(last.id, last.conversationID, last.senderID, last.receiverID,
+                last.message, last.timestamp, true).withDayHeader(last.showDayHeader);
+        List<ChatMessage> withPending = new ArrayList<>(history);
+        withPending.set(HISTORY_SIZE - 1, pending);
+        runner.run("adapter.diffConfirmPending", 100, () -> calculateDiff(withPending, confirmed));
+
+        List<ChatMessage> prepended = new ArrayList<>(history);
+        ChatMessageMerger.merge(prepended, createMessages(-Constants.MESSAGE_PAGE_SIZE, Constants.MESSAGE_PAGE_SIZE));
+        runner.run("adapter.diffOlderPage", 100, () -> calculateDiff(history, prepended));
+    }
+
+    private static DiffUtil.DiffResult calculateDiff(List<ChatMessage> oldList, List<ChatMessage> newList) {
+        DiffUtil.ItemCallback<ChatMessage> itemCallback = ChatAdapter.DIFF_CALLBACK;
+        return DiffUtil.calculateDiff(new DiffUtil.Callback() {
+            @Override
+            public int getOldListSize() {
+                return oldList.size();
+            }
+
+            @Override
+            public int getNewListSize() {
+                return newList.size();
+            }
+
+            @Override
+            public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+                return itemCallback.areItemsTheSame(oldList.get(oldItemPosition), newList.get(newItemPosition));
+            }
+
+            @Override
+            public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+                return itemCallback.areContentsTheSame(oldList.get(oldItemPosition), newList.get(newItemPosition));
+            }
+        });
+    }
+
+    private static List<ChatMessage> createHistory(int size) {
+        List<ChatMessage> history = new ArrayList<>();
+        ChatMessageMerger.merge(history, createMessages(0, size));
+        return Collections.unmodifiableList(history);
+    }
+
+    private static List<ChatMessage> createMessages(int first, int count) {
+        List<ChatMessage> chatMessages = new ArrayList<>(count);
+        for (Map<String, Object> document : createDocuments(first, count)) {
+            chatMessages.add(toChatMessage(document));
+        }
+        return chatMessages;
+    }
+
+    /**
+     * Builds chat documents as Firestore would hand them over, with a field map per document
+     */
+    private static List<Map<String, Object>> createDocuments(int first, int count) {
+        List<Map<String, Object>> documents = new ArrayList<>(count);
+        for (int i = first; i < first + count; i++) {
+            Map<String, Object> document = new HashMap<>();
+            document.put("id", "message" + i);
+            document.put(Constants.KEY_CONVERSATION_ID, "alice_bob");
+            document.put(Constants.KEY_SENDER_ID, i % 2 == 0 ? "alice" : "bob");
+            document.put(Constants.KEY_RECEIVER_ID, i % 2 == 0 ? "bob" : "alice");
+            document.put(Constants.KEY_MESSAGE, "Message number " + i + " of the benchmark conversation");
+            document.put(Constants.KEY_TIMESTAMP, new Date(START_TIMESTAMP + i * MESSAGE_INTERVAL_MS));
+            documents.add(document);
+        }
+        return documents;
+    }
+
+    /**
+     * Mirrors MessageSyncEngine.toChatMessage() for a field map instead of a DocumentSnapshot
+     */
+    @NonNull
+    private static ChatMessage toChatMessage(Map<String, Object> document) {
+        return new ChatMessage((String) document.get("id"),
+                (String) document.get(Constants.KEY_CONVERSATION_ID),
+                (String) document.get(Constants.KEY_SENDER_ID),
+                (String) document.get(Constants.KEY_RECEIVER_ID),
+                (String) document.get(Constants.KEY_MESSAGE),
+                ((Date) document.get(Constants.KEY_TIMESTAMP)).getTime(),
+                false);
+    }
+}
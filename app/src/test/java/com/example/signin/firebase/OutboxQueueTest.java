@@ -0,0 +1,80 @@
+package com.example.signin.firebase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.example.signin.models.ChatMessage;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class OutboxQueueTest {
+
+    @Test
+    public void takeBatch_takesOldestMessagesUpToBatchSize() {
+        OutboxQueue queue = new OutboxQueue(2);
+        List<ChatMessage> batch = queue.takeBatch(messages("a", "b", "c"), 0);
+        assertEquals(Arrays.asList("a", "b"), ids(batch));
+    }
+
+    @Test
+    public void takeBatch_skipsMessagesBeingWritten() {
+        OutboxQueue queue = new OutboxQueue(2);
+        queue.takeBatch(messages("a", "b", "c"), 0);
+        assertEquals(4, queue.getReadLimit());
+        List<ChatMessage> next = queue.takeBatch(messages("a", "b", "c", "d"), 0);
+        assertEquals(Arrays.asList("c", "d"), ids(next));
+    }
+
+    @Test
+    public void takeBatch_picksRejectedBatchAgainBeforeNewerMessages() {
+        OutboxQueue queue = new OutboxQueue(2);
+        List<ChatMessage> batch = queue.takeBatch(messages("a", "b"), 0);
+        long delay = queue.onFailed(batch, 0);
+        assertEquals(OutboxQueue.INITIAL_RETRY_DELAY_MILLIS, delay);
+        assertTrue(queue.takeBatch(messages("a", "b", "c"), delay - 1).isEmpty());
+        assertEquals(Arrays.asList("a", "b"), ids(queue.takeBatch(messages("a", "b", "c"), delay)));
+    }
+
+    @Test
+    public void onFailed_doublesDelayUpToMaximum() {
+        OutboxQueue queue = new OutboxQueue(1);
+        long now = 0;
+        List<Long> delays = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            long delay = queue.onFailed(queue.takeBatch(messages("a"), now), now);
+            delays.add(delay);
+            now += delay;
+        }
+        assertEquals(Arrays.asList(1000L, 2000L, 4000L, 8000L, 16000L, 32000L, 60000L, 60000L, 60000L, 60000L), delays);
+    }
+
+    @Test
+    public void onCommitted_resetsBackoff() {
+        OutboxQueue queue = new OutboxQueue(1);
+        queue.onFailed(queue.takeBatch(messages("a"), 0), 0);
+        queue.onFailed(queue.takeBatch(messages("a"), 1000), 1000);
+        queue.onCommitted(queue.takeBatch(messages("a"), 3000));
+        assertEquals(Arrays.asList("b"), ids(queue.takeBatch(messages("b"), 3000)));
+        assertEquals(OutboxQueue.INITIAL_RETRY_DELAY_MILLIS, queue.onFailed(messages("b"), 3000));
+    }
+
+    private static List<ChatMessage> messages(String... ids) {
+        List<ChatMessage> chatMessages = new ArrayList<>();
+        for (int i = 0; i < ids.length; i++) {
+            chatMessages.add(new ChatMessage(ids[i], "alice_bob", "alice", "bob", "text " + ids[i], 100 * (i + 1), true));
+        }
+        return chatMessages;
+    }
+
+    private static List<String> ids(List<ChatMessage> chatMessages) {
+        List<String> ids = new ArrayList<>();
+        for (ChatMessage chatMessage : chatMessages) {
+            ids.add(chatMessage.id);
+        }
+        return ids;
+    }
+}
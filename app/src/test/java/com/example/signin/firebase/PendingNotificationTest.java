@@ -0,0 +1,85 @@
+package com.example.signin.firebase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.example.signin.models.ChatMessage;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class PendingNotificationTest {
+
+    @Test
+    public void add_schedulesFlushOncePerWindow() {
+        PendingNotification pending = new PendingNotification();
+        assertTrue(pending.add(message("m1"), "Alice", "1"));
+        assertFalse(pending.add(message("m2"), null, null));
+        pending.takeBurst(true);
+        assertTrue(pending.add(message("m3"), null, null));
+    }
+
+    @Test
+    public void takeBurst_returnsWindowInArrivalOrderAndCountsUnread() {
+        PendingNotification pending = new PendingNotification();
+        pending.add(message("m1"), "Alice", "1");
+        pending.add(message("m2"), null, null);
+        assertEquals(Arrays.asList("m1", "m2"), texts(pending.takeBurst(true)));
+        pending.add(message("m3"), null, null);
+        assertEquals(Arrays.asList("m3"), texts(pending.takeBurst(true)));
+        assertEquals(3, pending.getUnreadCount());
+        assertEquals(Arrays.asList("m1", "m2", "m3"), pending.getLines());
+        assertEquals("Alice", pending.getSenderName());
+        assertEquals("1", pending.getSenderImageVersion());
+    }
+
+    @Test
+    public void takeBurst_keepsOnlyNewestLines() {
+        PendingNotification pending = new PendingNotification();
+        for (int i = 1; i <= PendingNotification.MAX_LINES + 2; i++) {
+            pending.add(message("m" + i), "Alice", null);
+        }
+        pending.takeBurst(true);
+        assertEquals(PendingNotification.MAX_LINES + 2, pending.getUnreadCount());
+        assertEquals(PendingNotification.MAX_LINES, pending.getLines().size());
+        assertEquals("m3", pending.getLines().get(0));
+    }
+
+    @Test
+    public void takeBurst_whileChatIsShownStoresWithoutNotifying() {
+        PendingNotification pending = new PendingNotification();
+        pending.add(message("m1"), "Alice", null);
+        assertEquals(Arrays.asList("m1"), texts(pending.takeBurst(false)));
+        assertEquals(0, pending.getUnreadCount());
+        assertTrue(pending.isIdle());
+    }
+
+    @Test
+    public void clearUnread_makesEntryIdleOnlyOnceWindowIsClosed() {
+        PendingNotification pending = new PendingNotification();
+        pending.add(message("m1"), "Alice", null);
+        pending.takeBurst(true);
+        pending.add(message("m2"), null, null);
+        pending.clearUnread();
+        assertFalse(pending.isIdle());
+        assertTrue(pending.getLines().isEmpty());
+        pending.takeBurst(false);
+        assertTrue(pending.isIdle());
+    }
+
+    private static ChatMessage message(String text) {
+        return new ChatMessage(text, "alice_bob", "alice", "bob", text, 0, false);
+    }
+
+    private static List<String> texts(List<ChatMessage> chatMessages) {
+        List<String> texts = new ArrayList<>();
+        for (ChatMessage chatMessage : chatMessages) {
+            texts.add(chatMessage.message);
+        }
+        return texts;
+    }
+}
@@ -0,0 +1,179 @@
+package com.example.signin.utilities;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+import com.example.signin.models.ChatMessage;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.TimeZone;
+
+public class ChatMessageMergerTest {
+
+    private static final long DAY_MILLIS = 24 * 60 * 60 * 1000L;
+    private static final long HOUR_MILLIS = 60 * 60 * 1000L;
+    private static final long FIRST_DAY = 19_000;
+
+    @Test
+    public void merge_sortsBatchIntoTimestampOrder() {
+        List<ChatMessage> chatMessages = new ArrayList<>();
+        int inserted = ChatMessageMerger.merge(chatMessages,
+                messages(message("c", 300), message("a", 100), message("b", 200)));
+        assertEquals(3, inserted);
+        assertEquals(Arrays.asList("a", "b", "c"), ids(chatMessages));
+    }
+
+    @Test
+    public void merge_placesOlderAndNewerBatchesAroundHistory() {
+        List<ChatMessage> chatMessages = new ArrayList<>();
+        ChatMessageMerger.merge(chatMessages, messages(message("c", 300), message("d", 400)));
+        ChatMessageMerger.merge(chatMessages, messages(message("e", 500), message("a", 100)));
+        ChatMessageMerger.merge(chatMessages, messages(message("b", 200)));
+        assertEquals(Arrays.asList("a", "b", "c", "d", "e"), ids(chatMessages));
+    }
+
+    @Test
+    public void merge_keepsArrivalOrderForEqualTimestamps() {
+        List<ChatMessage> chatMessages = new ArrayList<>();
+        ChatMessageMerger.merge(chatMessages, messages(message("a", 100), message("b", 100)));
+        ChatMessageMerger.merge(chatMessages, messages(message("c", 100)));
+        assertEquals(Arrays.asList("a", "b", "c"), ids(chatMessages));
+    }
+
+    @Test
+    public void merge_skipsMessagesAlreadyInTheList() {
+        List<ChatMessage> chatMessages = new ArrayList<>();
+        ChatMessageMerger.merge(chatMessages, messages(message("a", 100), message("b", 200)));
+        int inserted = ChatMessageMerger.merge(chatMessages, messages(message("b", 200), message("a", 100)));
+        assertEquals(0, inserted);
+        assertEquals(Arrays.asList("a", "b"), ids(chatMessages));
+    }
+
+    @Test
+    public void merge_skipsDuplicatesWithinOneBatch() {
+        List<ChatMessage> chatMessages = new ArrayList<>();
+        int inserted = ChatMessageMerger.merge(chatMessages, messages(message("a", 100), message("a", 100)));
+        assertEquals(1, inserted);
+        assertEquals(Collections.singletonList("a"), ids(chatMessages));
+    }
+
+    @Test
+    public void merge_replacesPendingEchoWithConfirmedCopy() {
+        List<ChatMessage> chatMessages = new ArrayList<>();
+        ChatMessageMerger.merge(chatMessages, messages(message("a", 100), pending("b", 200)));
+        int replaced = ChatMessageMerger.merge(chatMessages, messages(message("b", 200)));
+        assertEquals(1, replaced);
+        assertEquals(Arrays.asList("a", "b"), ids(chatMessages));
+        assertFalse(chatMessages.get(1).pending);
+    }
+
+    @Test
+    public void merge_movesConfirmedCopyToItsServerTimestamp() {
+        List<ChatMessage> chatMessages = new ArrayList<>();
+        ChatMessageMerger.merge(chatMessages, messages(message("a", 100), pending("b", 500), message("c", 300)));
+        assertEquals(Arrays.asList("a", "c", "b"), ids(chatMessages));
+
+        int replaced = ChatMessageMerger.merge(chatMessages, messages(message("b", 200)));
+        assertEquals(1, replaced);
+        assertEquals(Arrays.asList("a", "b", "c"), ids(chatMessages));
+        assertEquals(200, chatMessages.get(1).timestamp);
+        for (ChatMessage chatMessage : chatMessages) {
+            assertFalse(chatMessage.pending);
+        }
+    }
+
+    @Test
+    public void merge_doesNotReplaceConfirmedMessageWithPendingCopy() {
+        List<ChatMessage> chatMessages = new ArrayList<>();
+        ChatMessageMerger.merge(chatMessages, messages(message("a", 100)));
+        int inserted = ChatMessageMerger.merge(chatMessages, messages(pending("a", 100)));
+        assertEquals(0, inserted);
+        assertFalse(chatMessages.get(0).pending);
+    }
+
+    @Test
+    public void merge_marksFirstMessageOfEachDay() {
+        List<ChatMessage> chatMessages = new ArrayList<>();
+        ChatMessageMerger.merge(chatMessages, messages(
+                message("a", localTime(FIRST_DAY, 9)),
+                message("b", localTime(FIRST_DAY, 15)),
+                message("c", localTime(FIRST_DAY + 2, 9))));
+        assertEquals(Arrays.asList(true, false, true), dayHeaders(chatMessages));
+    }
+
+    @Test
+    public void merge_movesDayHeaderToEarlierMessageOfSameDay() {
+        List<ChatMessage> chatMessages = new ArrayList<>();
+        ChatMessageMerger.merge(chatMessages, messages(
+                message("b", localTime(FIRST_DAY, 15)),
+                message("c", localTime(FIRST_DAY + 1, 9))));
+        ChatMessageMerger.merge(chatMessages, messages(message("a", localTime(FIRST_DAY, 9))));
+        assertEquals(Arrays.asList("a", "b", "c"), ids(chatMessages));
+        assertEquals(Arrays.asList(true, false, true), dayHeaders(chatMessages));
+    }
+
+    @Test
+    public void merge_updatesDayHeaderWhenPendingEchoMoves() {
+        List<ChatMessage> chatMessages = new ArrayList<>();
+        ChatMessageMerger.merge(chatMessages, messages(
+                message("a", localTime(FIRST_DAY, 9)),
+                pending("b", localTime(FIRST_DAY + 1, 9)),
+                message("c", localTime(FIRST_DAY + 1, 15))));
+        assertEquals(Arrays.asList(true, true, false), dayHeaders(chatMessages));
+
+        ChatMessageMerger.merge(chatMessages, messages(message("b", localTime(FIRST_DAY, 15))));
+        assertEquals(Arrays.asList("a", "b", "c"), ids(chatMessages));
+        assertEquals(Arrays.asList(true, false, true), dayHeaders(chatMessages));
+    }
+
+    @Test
+    public void merge_leavesUnchangedMessagesIdentical() {
+        List<ChatMessage> chatMessages = new ArrayList<>();
+        ChatMessageMerger.merge(chatMessages, messages(message("a", 100), message("b", 200)));
+        ChatMessage first = chatMessages.get(0);
+        ChatMessageMerger.merge(chatMessages, messages(message("c", 300)));
+        assertSame(first, chatMessages.get(0));
+    }
+
+    private static ChatMessage message(String id, long timestamp) {
+        return new ChatMessage(id, "alice_bob", "alice", "bob", "text " + id, timestamp, false);
+    }
+
+    private static ChatMessage pending(String id, long timestamp) {
+        return new ChatMessage(id, "alice_bob", "alice", "bob", "text " + id, timestamp, true);
+    }
+
+    private static List<ChatMessage> messages(ChatMessage... chatMessages) {
+        return new ArrayList<>(Arrays.asList(chatMessages));
+    }
+
+    /**
+     * @return The given hour of a local calendar day, counted in days since the epoch
+     */
+    private static long localTime(long day, int hour) {
+        long timestamp = day * DAY_MILLIS + hour * HOUR_MILLIS;
+        return timestamp - TimeZone.getDefault().getOffset(timestamp);
+    }
+
+    private static List<String> ids(List<ChatMessage> chatMessages) {
+        List<String> ids = new ArrayList<>();
+        for (ChatMessage chatMessage : chatMessages) {
+            ids.add(chatMessage.id);
+        }
+        return ids;
+    }
+
+    private static List<Boolean> dayHeaders(List<ChatMessage> chatMessages) {
+        List<Boolean> dayHeaders = new ArrayList<>();
+        for (ChatMessage chatMessage : chatMessages) {
+            dayHeaders.add(chatMessage.showDayHeader);
+        }
+        return dayHeaders;
+    }
+}
@@ -0,0 +1,90 @@
+package com.example.signin.utilities;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Locale;
+
+public class MessageTimeFormatterTest {
+
+    private static final long MINUTE_MILLIS = 60 * 1000L;
+
+    @Test
+    public void formatTime_matchesTimePattern() {
+        SimpleDateFormat timeFormat = new SimpleDateFormat("hh:mm a", Locale.getDefault());
+        for (long timestamp : timestamps()) {
+            assertEquals(timeFormat.format(new Date(timestamp)), MessageTimeFormatter.formatTime(timestamp));
+        }
+    }
+
+    @Test
+    public void formatTime_sharesStringWithinMinute() {
+        long minute = localTime(2024, Calendar.MAY, 4, 9, 41);
+        String time = MessageTimeFormatter.formatTime(minute);
+        assertSame(time, MessageTimeFormatter.formatTime(minute + 59_999));
+        assertNotEquals(time, MessageTimeFormatter.formatTime(minute + MINUTE_MILLIS));
+    }
+
+    @Test
+    public void formatTime_isCorrectAfterCacheSlotIsReused() {
+        long timestamp = localTime(2024, Calendar.MAY, 4, 9, 41);
+        // 256 minutes later maps to the same cache slot
+        long sameSlot = timestamp + 256 * MINUTE_MILLIS;
+        String time = MessageTimeFormatter.formatTime(timestamp);
+        String laterTime = MessageTimeFormatter.formatTime(sameSlot);
+        assertNotEquals(time, laterTime);
+        assertEquals(time, MessageTimeFormatter.formatTime(timestamp));
+        assertEquals(laterTime, MessageTimeFormatter.formatTime(sameSlot));
+    }
+
+    @Test
+    public void formatDay_matchesDayPatternAcrossTheDay() {
+        SimpleDateFormat dayFormat = new SimpleDateFormat("MMM dd, yyyy", Locale.getDefault());
+        for (long timestamp : timestamps()) {
+            assertEquals(dayFormat.format(new Date(timestamp)), MessageTimeFormatter.formatDay(timestamp));
+        }
+    }
+
+    @Test
+    public void getDayBucket_isSameWithinLocalDay() {
+        long dayBucket = MessageTimeFormatter.getDayBucket(localTime(2024, Calendar.MARCH, 10, 0, 0));
+        assertEquals(dayBucket, MessageTimeFormatter.getDayBucket(localTime(2024, Calendar.MARCH, 10, 12, 0)));
+        assertEquals(dayBucket, MessageTimeFormatter.getDayBucket(localTime(2024, Calendar.MARCH, 10, 23, 59)));
+    }
+
+    @Test
+    public void getDayBucket_advancesAtLocalMidnight() {
+        long lastMinute = localTime(2024, Calendar.NOVEMBER, 2, 23, 59);
+        long midnight = localTime(2024, Calendar.NOVEMBER, 3, 0, 0);
+        assertEquals(MessageTimeFormatter.getDayBucket(lastMinute) + 1, MessageTimeFormatter.getDayBucket(midnight));
+    }
+
+    /**
+     * Times spread over a few days, including the ends of days and a daylight saving change
+     */
+    private static long[] timestamps() {
+        return new long[]{
+                localTime(2024, Calendar.JANUARY, 1, 0, 0),
+                localTime(2024, Calendar.JANUARY, 1, 12, 0),
+                localTime(2024, Calendar.JANUARY, 1, 23, 59),
+                localTime(2024, Calendar.MARCH, 10, 0, 30),
+                localTime(2024, Calendar.MARCH, 10, 3, 30),
+                localTime(2024, Calendar.MARCH, 31, 23, 45),
+                localTime(2024, Calendar.NOVEMBER, 3, 1, 30),
+                localTime(2026, Calendar.OCTOBER, 18, 9, 41)
+        };
+    }
+
+    private static long localTime(int year, int month, int day, int hour, int minute) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(year, month, day, hour, minute);
+        return calendar.getTimeInMillis();
+    }
+}
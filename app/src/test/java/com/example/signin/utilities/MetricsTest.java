@@ -0,0 +1,82 @@
+package com.example.signin.utilities;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Metrics are process-wide, so every test records under names of its own
+ */
+public class MetricsTest {
+
+    @Test
+    public void getCount_isZeroForUnknownCounter() {
+        assertEquals(0, Metrics.getCount("test.unknown"));
+    }
+
+    @Test
+    public void increment_accumulates() {
+        Metrics.increment("test.counter", 2);
+        Metrics.increment("test.counter", 3);
+        assertEquals(5, Metrics.getCount("test.counter"));
+        assertTrue(Metrics.report().contains(line("test.counter", "5")));
+    }
+
+    @Test
+    public void increment_isSafeAcrossThreads() throws InterruptedException {
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < 10_000; j++) {
+                    Metrics.increment("test.concurrent", 1);
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(40_000, Metrics.getCount("test.concurrent"));
+    }
+
+    @Test
+    public void report_summarizesHistogramByBucket() {
+        Metrics.record("test.histogram", 100);
+        Metrics.record("test.histogram", 100);
+        Metrics.record("test.histogram", 3_000);
+        // p50 falls in the 100us bucket and p95 in the 5ms bucket
+        assertTrue(Metrics.report().contains(line("test.histogram",
+                "n=3 avg=1.1ms p50<=0.1ms p95<=5.0ms max=3.0ms")));
+    }
+
+    @Test
+    public void report_usesMaximumForOverflowBucket() {
+        Metrics.record("test.overflow", 1_000);
+        Metrics.record("test.overflow", 4_000_000);
+        assertTrue(Metrics.report().contains(line("test.overflow",
+                "n=2 avg=2000.5ms p50<=1.0ms p95<=4000.0ms max=4000.0ms")));
+    }
+
+    @Test
+    public void report_readsGaugesWhenBuilt() {
+        AtomicLong value = new AtomicLong(1);
+        Metrics.registerGauge("test.gauge", value::get);
+        assertTrue(Metrics.report().contains(line("test.gauge", "1")));
+        value.set(7);
+        assertTrue(Metrics.report().contains(line("test.gauge", "7")));
+    }
+
+    @Test
+    public void report_leavesOutUnknownMetrics() {
+        assertFalse(Metrics.report().contains("test.neverRecorded"));
+    }
+
+    private static String line(String name, String value) {
+        return String.format(Locale.US, "%-22s %s", name, value);
+    }
+}